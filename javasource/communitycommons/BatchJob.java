@@ -0,0 +1,335 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogNodes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Processes all objects returned by an xpath query in batches.
+ *
+ * Pages are retrieved using an id based keyset cursor ([id &gt; last] or [id &lt; last]), so every
+ * retrieve costs the same, regardless of how far the job has progressed. Up to <code>threads</code>
+ * batches are processed concurrently, each in its own system context. While the workers are busy,
+ * the next page is already retrieved, so workers do not have to wait for the database.
+ *
+ * Every started job is registered and can be looked up by id to inspect its progress or to cancel
+ * it. Cancellation is cooperative: the running items finish, but no new items are started.
+ */
+public class BatchJob {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	/**
+	 * Finished jobs are kept around for inspection for this amount of time
+	 */
+	private static final long RETAIN_FINISHED_MS = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * Shared pool for all batch jobs. The amount of concurrently running batches is limited per job.
+	 */
+	private static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		private final AtomicInteger threadnr = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread t = defaultFactory.newThread(runnable);
+			t.setPriority(Thread.MIN_PRIORITY);
+			t.setName("CommunityCommons batch thread " + threadnr.incrementAndGet());
+			return t;
+		}
+	});
+
+	private static final AtomicLong jobnr = new AtomicLong();
+	private static final Map<Long, BatchJob> jobs = new ConcurrentHashMap<>();
+
+	public interface IBatchItemHandler {
+
+		void exec(IContext context, IMendixObject obj) throws Exception;
+
+	}
+
+	private final long id = jobnr.incrementAndGet();
+	private final String name;
+	private final String xpath;
+	private final int batchsize;
+	private final int threads;
+	private final boolean asc;
+	private final IBatchItemHandler handler;
+	private final Semaphore window;
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private volatile long total = -1;
+	private volatile long startNanos;
+	private volatile long endNanos;
+	private volatile long finishedAt;
+	private volatile boolean cancelled = false;
+
+	public BatchJob(String name, String xpath, int batchsize, int threads, boolean asc, IBatchItemHandler handler) {
+		if (batchsize < 1) {
+			throw new IllegalArgumentException("Batchsize should be larger than zero");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("The amount of threads should be larger than zero");
+		}
+		this.name = name;
+		this.xpath = xpath.startsWith("//") ? xpath : "//" + xpath;
+		this.batchsize = batchsize;
+		this.threads = threads;
+		this.asc = asc;
+		this.handler = handler;
+		this.window = new Semaphore(threads);
+	}
+
+	/**
+	 * @return The job with the given id, or null if it is unknown or finished more than an hour ago
+	 */
+	public static BatchJob get(long id) {
+		BatchJob job = jobs.get(id);
+		if (job != null && job.isExpired(System.currentTimeMillis())) {
+			jobs.remove(id, job);
+			return null;
+		}
+		return job;
+	}
+
+	/**
+	 * @return All running jobs and the jobs that finished during the last hour, ordered by id
+	 */
+	public static List<BatchJob> getJobs() {
+		pruneFinishedJobs();
+		List<BatchJob> res = new ArrayList<>(jobs.values());
+		res.sort((a, b) -> Long.compare(a.id, b.id));
+		return res;
+	}
+
+	private static void pruneFinishedJobs() {
+		long now = System.currentTimeMillis();
+		jobs.values().removeIf(job -> job.isExpired(now));
+	}
+
+	private boolean isExpired(long now) {
+		return isDone() && finishedAt + RETAIN_FINISHED_MS < now;
+	}
+
+	/**
+	 * Starts retrieving and processing batches in the background.
+	 *
+	 * @return A future that completes with true if all objects were processed, or false if a batch
+	 * failed or the job was cancelled. It completes exceptionally if retrieving the objects failed.
+	 */
+	public CompletableFuture<Boolean> start() {
+		pruneFinishedJobs();
+		jobs.put(id, this);
+		startNanos = System.nanoTime();
+		POOL.execute(this::run);
+		return result;
+	}
+
+	/**
+	 * Requests the job to stop. Items that are being processed will finish, remaining items are
+	 * skipped.
+	 */
+	public void cancel() {
+		if (!isDone()) {
+			Logging.info(LOGNODE, "[ExecuteInBatches] Cancelling " + this);
+			cancelled = true;
+		}
+	}
+
+	public CompletableFuture<Boolean> getResult() {
+		return result;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getXPath() {
+		return xpath;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	/**
+	 * @return The amount of objects matching the xpath when the job was started, or -1 if unknown
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	public long getProcessedCount() {
+		return processed.get();
+	}
+
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	public long getElapsedMillis() {
+		if (startNanos == 0) {
+			return 0;
+		}
+		long end = isDone() ? endNanos : System.nanoTime();
+		return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+	}
+
+	public double getItemsPerSecond() {
+		long elapsed = getElapsedMillis();
+		return elapsed == 0 ? 0 : processed.get() * 1000.0 / elapsed;
+	}
+
+	/**
+	 * @param percentile For example 50 or 99
+	 * @return The time it took to handle a single item at the given percentile, in milliseconds
+	 */
+	public double getLatencyMillis(double percentile) {
+		return latency.getPercentileMillis(percentile);
+	}
+
+	/**
+	 * @return The estimated remaining time in milliseconds based on the current throughput, or -1
+	 * if it cannot be estimated yet
+	 */
+	public long getEstimatedMillisRemaining() {
+		if (isDone()) {
+			return 0;
+		}
+		double rate = getItemsPerSecond();
+		if (total < 0 || rate == 0) {
+			return -1;
+		}
+		return (long) (Math.max(0, total - processed.get()) * 1000 / rate);
+	}
+
+	/**
+	 * @return The error that caused the job to fail, or null
+	 */
+	public Throwable getLastError() {
+		return failure.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("batch job #%d '%s' on %s: %d/%d items in %d batches, %.1f items/s, p50 %.1f ms, p99 %.1f ms, ETA %d s%s",
+			id, name, xpath, processed.get(), total, batches.get(), getItemsPerSecond(),
+			getLatencyMillis(50), getLatencyMillis(99), getEstimatedMillisRemaining() / 1000,
+			cancelled ? ", cancelled" : "");
+	}
+
+	private boolean shouldStop() {
+		return cancelled || failure.get() != null;
+	}
+
+	private void run() {
+		try {
+			IContext c = Core.createSystemContext();
+			Map<String, String> sort = Collections.singletonMap(XPath.ID, asc ? "asc" : "desc");
+			long last = 0;
+
+			total = Core.retrieveXPathQueryAggregate(c, "count(" + xpath + ")");
+			Logging.debugLazy(LOGNODE, () -> "[ExecuteInBatches] Starting " + this);
+
+			List<IMendixObject> objects = Core.retrieveXPathQuery(c, xpath, batchsize, 0, sort);
+			while (!objects.isEmpty() && !shouldStop()) {
+				window.acquire();
+				submit(batches.incrementAndGet(), objects);
+
+				last = objects.get(objects.size() - 1).getId().toLong();
+				// retrieve the next page while the workers process the current one
+				objects = Core.retrieveXPathQuery(c, xpath + "[id " + (asc ? "> " : "< ") + last + "]", batchsize, 0, sort);
+			}
+
+			// wait for all running batches to finish
+			window.acquire(threads);
+			window.release(threads);
+
+			Throwable t = failure.get();
+			if (t != null) {
+				Logging.error(LOGNODE, "[ExecuteInBatches] Failed to run in batch: " + t.getMessage(), t);
+				finish(false);
+			} else if (cancelled) {
+				Logging.info(LOGNODE, "[ExecuteInBatches] Cancelled " + this);
+				finish(false);
+			} else {
+				Logging.debugLazy(LOGNODE, () -> "[ExecuteInBatches] Succesfully finished " + this);
+				finish(true);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+			finishExceptionally(e);
+		} catch (Exception e) {
+			Logging.error(LOGNODE, "[ExecuteInBatches] Failed to retrieve batch: " + e.getMessage(), e);
+			failure.compareAndSet(null, e);
+			finishExceptionally(e);
+		}
+	}
+
+	private void finish(boolean success) {
+		endNanos = System.nanoTime();
+		finishedAt = System.currentTimeMillis();
+		result.complete(success);
+	}
+
+	private void finishExceptionally(Throwable t) {
+		endNanos = System.nanoTime();
+		finishedAt = System.currentTimeMillis();
+		result.completeExceptionally(t);
+	}
+
+	private void submit(final long batchnr, final List<IMendixObject> objects) {
+		POOL.execute(() -> {
+			try {
+				if (shouldStop()) {
+					return;
+				}
+				Logging.debug(LOGNODE, "[ExecuteInBatches] Running batch #%d (%d objects) of job #%d", batchnr, objects.size(), id);
+				IContext c = Core.createSystemContext();
+				for (IMendixObject obj : objects) {
+					if (shouldStop()) {
+						return;
+					}
+					long itemStart = System.nanoTime();
+					handler.exec(c, obj);
+					latency.record(System.nanoTime() - itemStart);
+					processed.incrementAndGet();
+				}
+			} catch (Exception e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				window.release();
+			}
+		});
+	}
+}
@@ -0,0 +1,372 @@
+package communitycommons;
+
+import communitycommons.proxies.LogNodes;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches remote resources over a shared HttpClient, so connections are kept alive and reused
+ * between calls. Downloads are streamed to a temporary file, which is never allowed to grow beyond
+ * the configured maximum size. The timeout applies to the connection, to the response headers and
+ * to every read of a response body, so a server that stalls halfway never blocks the caller for good.
+ *
+ * Urls with another scheme than http or https, such as file, ftp or jar urls, are not supported
+ * by HttpClient and are read through a URLConnection with the same timeouts and maximum size.
+ *
+ * The default instance is used by retrieveURL and storeURLToFileDocument. Other instances, for
+ * example with shorter timeouts, can be created with the constructor.
+ */
+public class HttpFetcher {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	public static final long DEFAULT_MAX_BYTES = 1024 * 1024 * 200; //maximum of 200 MB
+	public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(20);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Threads of the shared client, which also copy the response bodies of asynchronous downloads
+	 */
+	private static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		private final AtomicInteger threadnr = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread t = defaultFactory.newThread(runnable);
+			t.setDaemon(true);
+			t.setName("CommunityCommons http thread " + threadnr.incrementAndGet());
+			return t;
+		}
+	});
+
+	/**
+	 * Closes the body of downloads that did not receive any data within the timeout, which makes
+	 * the blocked read fail
+	 */
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread t = defaultFactory.newThread(runnable);
+			t.setDaemon(true);
+			t.setName("CommunityCommons http watchdog thread");
+			return t;
+		}
+	});
+
+	private static final HttpFetcher DEFAULT = new HttpFetcher(DEFAULT_TIMEOUT, DEFAULT_MAX_BYTES);
+
+	private final HttpClient client;
+	private final Duration timeout;
+	private final long maxBytes;
+
+	/**
+	 * @param timeout The maximum time to wait for a connection and for the response headers
+	 * @param maxBytes The maximum size of a downloaded file
+	 */
+	public HttpFetcher(Duration timeout, long maxBytes) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("Maximum size should be larger than zero");
+		}
+		this.timeout = timeout;
+		this.maxBytes = maxBytes;
+		this.client = HttpClient.newBuilder()
+			.connectTimeout(timeout)
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.executor(POOL)
+			.build();
+	}
+
+	public static HttpFetcher getDefault() {
+		return DEFAULT;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Retrieves the response body of a url as string. If postdata is provided, it is posted as form
+	 * data, otherwise a GET request is made.
+	 */
+	public String fetchString(String url, String postdata) throws IOException {
+		if (!isHttp(url)) {
+			return fetchStringFromConnection(url, postdata);
+		}
+		HttpRequest.Builder builder = HttpRequest.newBuilder(toURI(url))
+			.header("Content-Type", "application/x-www-form-urlencoded");
+		if (postdata != null) {
+			builder.POST(HttpRequest.BodyPublishers.ofString(postdata, StandardCharsets.UTF_8));
+		}
+
+		HttpResponse<InputStream> response = send(builder.timeout(timeout).build(), HttpResponse.BodyHandlers.ofInputStream());
+		try (InputStream body = response.body()) {
+			checkStatus(url, response.statusCode());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			copyBody(url, body, out);
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Downloads a url to a new temporary file. The caller is responsible for deleting the file.
+	 *
+	 * @throws IllegalArgumentException if the remote file is larger than the maximum size
+	 */
+	public Path download(String url) throws IOException {
+		if (!isHttp(url)) {
+			return downloadFromConnection(url);
+		}
+		return toTempFile(url, send(downloadRequest(url), HttpResponse.BodyHandlers.ofInputStream()));
+	}
+
+	/**
+	 * Same as {@link #download}, but does not block the calling thread. If the download fails, no
+	 * temporary file is left behind.
+	 */
+	public CompletableFuture<Path> downloadAsync(final String url) {
+		HttpRequest request;
+		try {
+			if (!isHttp(url)) {
+				return CompletableFuture.supplyAsync(() -> {
+					try {
+						return downloadFromConnection(url);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, POOL);
+			}
+			request = downloadRequest(url);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+			.thenApplyAsync(response -> {
+				try {
+					return toTempFile(url, response);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, POOL);
+	}
+
+	/**
+	 * Downloads all urls, with at most <code>parallelism</code> downloads running at the same time.
+	 * This method blocks only while waiting for a free download slot.
+	 *
+	 * @return A future per url, in the same order as the urls
+	 */
+	public List<CompletableFuture<Path>> downloadAll(List<String> urls, int parallelism) throws InterruptedException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be larger than zero");
+		}
+
+		final Semaphore slots = new Semaphore(parallelism);
+		List<CompletableFuture<Path>> res = new ArrayList<>(urls.size());
+		for (String url : urls) {
+			slots.acquire();
+			res.add(downloadAsync(url).whenComplete((file, error) -> slots.release()));
+		}
+		return res;
+	}
+
+	/**
+	 * @return The cause of a failed download, unwrapped from the completion exceptions
+	 */
+	public static Throwable getCause(Throwable t) {
+		while ((t instanceof CompletionException || t instanceof UncheckedIOException) && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t;
+	}
+
+	private HttpRequest downloadRequest(String url) throws IOException {
+		return HttpRequest.newBuilder(toURI(url)).timeout(timeout).GET().build();
+	}
+
+	private static boolean isHttp(String url) throws MalformedURLException {
+		String protocol = new URL(url).getProtocol();
+		return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+	}
+
+	/**
+	 * Converts a url to a URI like URLConnection accepts it, so characters that should have been
+	 * escaped, such as spaces, are escaped instead of rejected
+	 */
+	static URI toURI(String url) throws MalformedURLException {
+		URL parsed = new URL(url);
+		try {
+			return parsed.toURI();
+		} catch (URISyntaxException e) {
+			try {
+				return new URI(parsed.getProtocol(), parsed.getUserInfo(), parsed.getHost(), parsed.getPort(),
+					parsed.getPath(), parsed.getQuery(), parsed.getRef());
+			} catch (URISyntaxException e2) {
+				MalformedURLException mue = new MalformedURLException("Invalid URL: " + url);
+				mue.initCause(e2);
+				throw mue;
+			}
+		}
+	}
+
+	private URLConnection openConnection(String url) throws IOException {
+		URLConnection connection = new URL(url).openConnection();
+		connection.setConnectTimeout((int) timeout.toMillis());
+		connection.setReadTimeout((int) timeout.toMillis());
+		return connection;
+	}
+
+	private String fetchStringFromConnection(String url, String postdata) throws IOException {
+		URLConnection connection = openConnection(url);
+		connection.setDoInput(true);
+		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		if (postdata != null) {
+			connection.setDoOutput(true);
+			try (OutputStream os = connection.getOutputStream()) {
+				os.write(postdata.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+
+		try (InputStream body = connection.getInputStream()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			copyBody(url, body, out);
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private Path downloadFromConnection(String url) throws IOException {
+		URLConnection connection = openConnection(url);
+		try (InputStream body = connection.getInputStream()) {
+			long contentLength = connection.getContentLengthLong();
+			Logging.trace(LOGNODE, "Remote filesize: %d", contentLength);
+			if (contentLength > maxBytes) {
+				throw new IllegalArgumentException(String.format("Wrong filesize of remote url: %d (max: %d)", contentLength, maxBytes));
+			}
+			return copyToTempFile(url, body);
+		}
+	}
+
+	private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+		try {
+			return client.send(request, handler);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException ioe = new InterruptedIOException("Interrupted while requesting " + request.uri());
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+
+	private static void checkStatus(String url, int statusCode) throws IOException {
+		if (statusCode >= 400) {
+			throw new IOException("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+		}
+	}
+
+	private Path toTempFile(String url, HttpResponse<InputStream> response) throws IOException {
+		try (InputStream body = response.body()) {
+			checkStatus(url, response.statusCode());
+
+			//check on forehand the size of the remote file, we don't want to kill the server by providing a 3 terabyte image.
+			OptionalLong contentLength = response.headers().firstValueAsLong("Content-Length");
+			Logging.trace(LOGNODE, "Remote filesize: %d", contentLength.orElse(-1));
+			if (contentLength.isPresent() && contentLength.getAsLong() > maxBytes) {
+				throw new IllegalArgumentException(String.format("Wrong filesize of remote url: %d (max: %d)", contentLength.getAsLong(), maxBytes));
+			}
+
+			return copyToTempFile(url, body);
+		}
+	}
+
+	private Path copyToTempFile(String url, InputStream body) throws IOException {
+		Path file = Files.createTempFile("communitycommons-download", ".tmp");
+		try (OutputStream out = Files.newOutputStream(file)) {
+			copyBody(url, body, out);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+		return file;
+	}
+
+	/**
+	 * Copies a response body of at most the maximum size. If no data is received within the
+	 * timeout, the body is closed and an HttpTimeoutException is thrown.
+	 */
+	private void copyBody(String url, final InputStream body, OutputStream out) throws IOException {
+		final AtomicLong lastRead = new AtomicLong(System.nanoTime());
+		final AtomicBoolean timedOut = new AtomicBoolean();
+		final long timeoutNanos = timeout.toNanos();
+		long checkInterval = Math.max(1, timeout.toMillis() / 4);
+		ScheduledFuture<?> watchdog = WATCHDOG.scheduleWithFixedDelay(() -> {
+			if (System.nanoTime() - lastRead.get() > timeoutNanos && timedOut.compareAndSet(false, true)) {
+				try {
+					body.close();
+				} catch (IOException e) {
+					// the blocked read fails or ends anyway
+				}
+			}
+		}, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long size = 0;
+			int read;
+			while ((read = body.read(buffer)) != -1) {
+				lastRead.set(System.nanoTime());
+				size += read;
+				if (size > maxBytes) {
+					throw new IllegalArgumentException(String.format("Remote file at %s is larger than the maximum of %d bytes", url, maxBytes));
+				}
+				out.write(buffer, 0, read);
+			}
+		} catch (IOException e) {
+			if (!timedOut.get()) {
+				throw e;
+			}
+		} finally {
+			watchdog.cancel(false);
+		}
+		// a closed body may also just end, so never return a truncated body
+		if (timedOut.get()) {
+			throw new HttpTimeoutException("No data received from " + url + " within " + timeout.toMillis() + " ms");
+		}
+	}
+}
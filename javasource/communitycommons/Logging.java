@@ -4,18 +4,49 @@ import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
 import communitycommons.proxies.LogLevel;
 import communitycommons.proxies.LogNodes;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class Logging {
 
-	private static Map<String, Long> timers = new HashMap<String, Long>();
+	/**
+	 * Start times of the timers, in System.nanoTime. The timers are shared by all threads, so a
+	 * timer can be ended by another microflow than the one that started it. There is one timer per
+	 * name: starting it again overwrites the start time.
+	 */
+	private static final Map<String, Long> timers = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Log nodes by name. Core.getLogger is relatively expensive, and log nodes never change.
+	 */
+	private static final Map<String, ILogNode> logNodes = new ConcurrentHashMap<String, ILogNode>();
 
 	public static void trace(String lognode, String message) {
 		log(lognode, LogLevel.Trace, message, null);
 	}
 
+	/**
+	 * Only builds the message if trace logging is enabled for the log node
+	 */
+	public static void traceLazy(String lognode, Supplier<String> message) {
+		ILogNode logger = createLogNode(lognode);
+		if (logger.isTraceEnabled()) {
+			logger.trace(message.get());
+		}
+	}
+
+	/**
+	 * Only formats the message (using String.format) if trace logging is enabled for the log node
+	 */
+	public static void trace(String lognode, String format, Object... args) {
+		ILogNode logger = createLogNode(lognode);
+		if (logger.isTraceEnabled()) {
+			logger.trace(String.format(format, args));
+		}
+	}
+
 	public static void info(String lognode, String message) {
 		log(lognode, LogLevel.Info, message, null);
 	}
@@ -24,6 +55,34 @@ public class Logging {
 		log(lognode, LogLevel.Debug, message, null);
 	}
 
+	/**
+	 * Only builds the message if debug logging is enabled for the log node
+	 */
+	public static void debugLazy(String lognode, Supplier<String> message) {
+		ILogNode logger = createLogNode(lognode);
+		if (logger.isDebugEnabled()) {
+			logger.debug(message.get());
+		}
+	}
+
+	/**
+	 * Only formats the message (using String.format) if debug logging is enabled for the log node
+	 */
+	public static void debug(String lognode, String format, Object... args) {
+		ILogNode logger = createLogNode(lognode);
+		if (logger.isDebugEnabled()) {
+			logger.debug(String.format(format, args));
+		}
+	}
+
+	public static boolean isTraceEnabled(String lognode) {
+		return createLogNode(lognode).isTraceEnabled();
+	}
+
+	public static boolean isDebugEnabled(String lognode) {
+		return createLogNode(lognode).isDebugEnabled();
+	}
+
 	public static void warn(String lognode, String message, Throwable e) {
 		log(lognode, LogLevel.Warning, message, e);
 	}
@@ -70,21 +129,30 @@ public class Logging {
 
 	public static Long measureEnd(String timerName, LogLevel loglevel,
 		String message) {
-		Long cur = new Date().getTime();
-		if (!timers.containsKey(timerName)) {
+		long cur = System.nanoTime();
+		Long start = timers.get(timerName);
+		if (start == null) {
 			throw new IllegalArgumentException(String.format("Timer with key %s not found", timerName));
 		}
-		Long timeTaken = cur - timers.get(timerName);
+		long nanosTaken = cur - start;
+		Metrics.recordTime(timerName, nanosTaken);
+
+		Long timeTaken = TimeUnit.NANOSECONDS.toMillis(nanosTaken);
 		String time = String.format("%d", timeTaken);
 		log(LogNodes.CommunityCommons.name(), loglevel, "Timer " + timerName + " finished in " + time + " ms. " + message, null);
 		return timeTaken;
 	}
 
 	public static void measureStart(String timerName) {
-		timers.put(timerName, new Date().getTime());
+		timers.put(timerName, System.nanoTime());
 	}
 
 	public static ILogNode createLogNode(String logNode) {
-		return Core.getLogger(logNode);
+		ILogNode logger = logNodes.get(logNode);
+		if (logger == null) {
+			logger = Core.getLogger(logNode);
+			logNodes.put(logNode, logger);
+		}
+		return logger;
 	}
 }
@@ -0,0 +1,81 @@
+package communitycommons;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Small thread safe least recently used cache, which keeps track of its hit and miss counts.
+ */
+public class LruCache<K, V> {
+
+	private final int maxSize;
+	private final Map<K, V> entries;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public LruCache(final int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size should be larger than zero");
+		}
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached value for the key, or computes and caches it. The value is computed outside
+	 * the lock, so two threads may compute the same value at the same time; one of them wins.
+	 */
+	public V get(K key, Function<? super K, ? extends V> compute) {
+		V value;
+		synchronized (entries) {
+			value = entries.get(key);
+		}
+		if (value != null) {
+			hits.incrementAndGet();
+			return value;
+		}
+
+		misses.incrementAndGet();
+		value = compute.apply(key);
+		synchronized (entries) {
+			entries.put(key, value);
+		}
+		return value;
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d/%d entries, %d hits, %d misses", size(), maxSize, hits.get(), misses.get());
+	}
+}
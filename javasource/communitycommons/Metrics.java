@@ -0,0 +1,113 @@
+package communitycommons;
+
+import communitycommons.proxies.LogLevel;
+import communitycommons.proxies.LogNodes;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide registry of named latency histograms and counters. The TimeMeasure actions record
+ * their timings here, so the distribution of a timer can be inspected after many runs, instead of
+ * only the duration of the last run.
+ *
+ * No action exposes the registry yet. Call {@link #report} or {@link #logPeriodically} from a Java
+ * action, for example in the after startup microflow.
+ */
+public class Metrics {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	private static final Map<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+	private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread t = new Thread(runnable, "CommunityCommons metrics reporter");
+		t.setDaemon(true);
+		return t;
+	});
+	private static ScheduledFuture<?> periodicLog;
+
+	/**
+	 * @return The histogram for the given timer, which is created if it does not exist yet
+	 */
+	public static LatencyHistogram timer(String name) {
+		return timers.computeIfAbsent(name, n -> new LatencyHistogram());
+	}
+
+	public static void recordTime(String name, long nanos) {
+		timer(name).record(nanos);
+	}
+
+	public static void increment(String name) {
+		add(name, 1);
+	}
+
+	public static void add(String name, long amount) {
+		counters.computeIfAbsent(name, n -> new LongAdder()).add(amount);
+	}
+
+	public static long getCount(String name) {
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * @return The given percentile (0-100) of the timer in milliseconds, or 0 if the timer is unknown
+	 */
+	public static double getPercentileMillis(String name, double percentile) {
+		LatencyHistogram histogram = timers.get(name);
+		return histogram == null ? 0 : histogram.getPercentileMillis(percentile);
+	}
+
+	/**
+	 * Clears all timers and counters
+	 */
+	public static void reset() {
+		timers.clear();
+		counters.clear();
+	}
+
+	/**
+	 * @return A line per timer and counter, sorted by name
+	 */
+	public static String report() {
+		StringBuilder res = new StringBuilder();
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(timers).entrySet()) {
+			LatencyHistogram h = entry.getValue();
+			res.append(String.format("Timer %s: count %d, mean %.1f ms, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+				entry.getKey(), h.getCount(), h.getMeanNanos() / 1e6, h.getPercentileMillis(50), h.getPercentileMillis(90),
+				h.getPercentileMillis(99), h.getMaxNanos() / 1e6));
+		}
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+			res.append(String.format("Counter %s: %d%n", entry.getKey(), entry.getValue().sum()));
+		}
+		return res.toString();
+	}
+
+	/**
+	 * Logs the report every <code>intervalSeconds</code>, replacing any earlier schedule.
+	 *
+	 * @param intervalSeconds The interval, or 0 to stop logging
+	 * @param loglevel The level to log the report at
+	 */
+	public static synchronized void logPeriodically(long intervalSeconds, final LogLevel loglevel) {
+		if (periodicLog != null) {
+			periodicLog.cancel(false);
+			periodicLog = null;
+		}
+		if (intervalSeconds > 0) {
+			periodicLog = scheduler.scheduleAtFixedRate(() -> {
+				String report = report();
+				if (!report.isEmpty()) {
+					Logging.log(LOGNODE, loglevel, "Metrics report:\n" + report, null);
+				}
+			}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+}
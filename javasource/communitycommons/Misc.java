@@ -11,30 +11,27 @@ import com.mendix.systemwideinterfaces.core.ISession;
 import com.mendix.systemwideinterfaces.core.IUser;
 import communitycommons.proxies.LogNodes;
 import static communitycommons.proxies.constants.Constants.getMergeMultiplePdfs_MaxAtOnce;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
-import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.Overlay;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -44,6 +41,7 @@ import system.proxies.Language;
 public class Misc {
 
 	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
 	private static boolean UNDER_TEST = false;
 
 	static {
@@ -159,28 +157,7 @@ public class Misc {
 	}
 
 	public static String retrieveURL(String url, String postdata) throws Exception {
-		// Send data, appname
-		URLConnection conn = new URL(url).openConnection();
-
-		conn.setDoInput(true);
-		conn.setDoOutput(true);
-		conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-
-		if (postdata != null) {
-			try (
-				OutputStream os = conn.getOutputStream()) {
-				IOUtils.copy(new ByteArrayInputStream(postdata.getBytes(StandardCharsets.UTF_8)), os);
-			}
-		}
-
-		String result;
-		try (
-			InputStream is = conn.getInputStream()) {
-			// Get the response
-			result = IOUtils.toString(is, StandardCharsets.UTF_8);
-		}
-
-		return result;
+		return HttpFetcher.getDefault().fetchString(url, postdata);
 	}
 
 	public static Boolean duplicateFileDocument(IContext context, IMendixObject toClone, IMendixObject target) throws Exception {
@@ -194,7 +171,7 @@ public class Misc {
 		}
 
 		try (
-			InputStream inputStream = Core.getFileDocumentContent(context, toClone)) {
+			InputStream inputStream = new BufferedInputStream(Core.getFileDocumentContent(context, toClone), STREAM_BUFFER_SIZE)) {
 			Core.storeFileDocumentContent(context, target, (String) toClone.getValue(context, system.proxies.FileDocument.MemberNames.Name.toString()), inputStream);
 		}
 
@@ -225,50 +202,104 @@ public class Misc {
 			throw new IllegalArgumentException("No document, filename or URL provided");
 		}
 
-		final int MAX_REMOTE_FILESIZE = 1024 * 1024 * 200; //maximum of 200 MB
+		Path file = null;
 		try {
-			URL imageUrl = new URL(url);
-			URLConnection connection = imageUrl.openConnection();
-			//we connect in 20 seconds or not at all
-			connection.setConnectTimeout(20000);
-			connection.setReadTimeout(20000);
-			connection.connect();
+			file = HttpFetcher.getDefault().download(url);
+			storeFileToFileDocument(context, file, __document, filename);
+		} catch (IOException ioe) {
+			Logging.error(LOGNODE, String.format("A problem occurred while reading from URL %s: %s", url, ioe.getMessage()));
+			throw ioe;
+		} finally {
+			if (file != null) {
+				Files.deleteIfExists(file);
+			}
+		}
 
-			int contentLength = connection.getContentLength();
+		return true;
+	}
 
-			//check on forehand the size of the remote file, we don't want to kill the server by providing a 3 terabyte image.
-			Logging.trace(LOGNODE, String.format("Remote filesize: %d", contentLength));
+	/**
+	 * Downloads multiple urls in parallel and stores each of them in the file document at the same
+	 * position. The downloads run in the background, the documents are stored in the calling thread.
+	 *
+	 * @param parallelism The maximum amount of downloads running at the same time
+	 * @return Per url whether it was stored; failed downloads are logged
+	 */
+	public static List<Boolean> storeURLsToFileDocuments(IContext context, List<String> urls, List<IMendixObject> documents,
+		List<String> filenames, int parallelism) throws IOException {
+		if (urls.size() != documents.size() || urls.size() != filenames.size()) {
+			throw new IllegalArgumentException("The amount of urls, documents and filenames should be the same");
+		}
 
-			if (contentLength > MAX_REMOTE_FILESIZE) { //maximum of 200 mb
-				throw new IllegalArgumentException(String.format("Wrong filesize of remote url: %d (max: %d)", contentLength, MAX_REMOTE_FILESIZE));
-			}
+		List<CompletableFuture<Path>> downloads;
+		try {
+			downloads = HttpFetcher.getDefault().downloadAll(urls, parallelism);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while starting downloads");
+		}
 
-			InputStream fileContentIS;
-			try (InputStream connectionInputStream = connection.getInputStream()) {
-				if (contentLength >= 0) {
-					fileContentIS = connectionInputStream;
-				} else { // contentLength is negative or unknown
-					Logging.trace(LOGNODE, String.format("Unknown content length; limiting to %d", MAX_REMOTE_FILESIZE));
-					byte[] outBytes = new byte[MAX_REMOTE_FILESIZE];
-					int actualLength = IOUtils.read(connectionInputStream, outBytes, 0, MAX_REMOTE_FILESIZE);
-					fileContentIS = new ByteArrayInputStream(Arrays.copyOf(outBytes, actualLength));
+		List<Boolean> res = new ArrayList<>(urls.size());
+		try {
+			for (int i = 0; i < urls.size(); i++) {
+				Path file = null;
+				try {
+					file = downloads.get(i).get();
+					storeFileToFileDocument(context, file, documents.get(i), filenames.get(i));
+					res.add(true);
+				} catch (ExecutionException e) {
+					Throwable cause = HttpFetcher.getCause(e.getCause());
+					Logging.error(LOGNODE, String.format("A problem occurred while reading from URL %s: %s", urls.get(i), cause.getMessage()));
+					res.add(false);
+				} finally {
+					if (file != null) {
+						Files.deleteIfExists(file);
+					}
 				}
-				Core.storeFileDocumentContent(context, __document, filename, fileContentIS);
 			}
-		} catch (IOException ioe) {
-			Logging.error(LOGNODE, String.format("A problem occurred while reading from URL %s: %s", url, ioe.getMessage()));
-			throw ioe;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for downloads");
+		} finally {
+			// clean up the downloads that were not stored
+			for (int i = res.size(); i < downloads.size(); i++) {
+				downloads.get(i).thenAccept(Misc::deleteQuietly);
+			}
 		}
 
-		return true;
+		return res;
 	}
 
+	private static void storeFileToFileDocument(IContext context, Path file, IMendixObject document, String filename) throws IOException {
+		try (InputStream fileContentIS = new BufferedInputStream(Files.newInputStream(file), STREAM_BUFFER_SIZE)) {
+			Core.storeFileDocumentContent(context, document, filename, fileContentIS);
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			Logging.warn(LOGNODE, "Could not delete temporary file " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the size of the contents of a file document. The size stored by the runtime is used if
+	 * it is available, otherwise the contents are read to count the bytes.
+	 */
 	public static Long getFileSize(IContext context, IMendixObject document) {
-		final int BUFFER_SIZE = 4096;
 		long size = 0;
 
 		if (context != null) {
-			byte[] buffer = new byte[BUFFER_SIZE];
+			if (document.hasMember(FileDocument.MemberNames.Size.toString())) {
+				Long storedSize = (Long) document.getValue(context, FileDocument.MemberNames.Size.toString());
+				if (storedSize != null && storedSize >= 0) {
+					return storedSize;
+				}
+			}
+
+			byte[] buffer = new byte[STREAM_BUFFER_SIZE];
 
 			try (
 				InputStream inputStream = Core.getFileDocumentContent(context, document)) {
@@ -365,61 +396,16 @@ public class Misc {
 		return Core.microflowCall(microflowName).withParams(params).execute(c);
 	}
 
-	//MWE: based on: http://download.oracle.com/javase/6/docs/api/java/util/concurrent/Executor.html
-	static class MFSerialExecutor {
-
-		private static MFSerialExecutor _instance = new MFSerialExecutor();
-
-		private final AtomicLong tasknr = new AtomicLong();
-		private final ExecutorService executor;
-
-		public static MFSerialExecutor instance() {
-			return _instance;
-		}
-
-		private MFSerialExecutor() {
-			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-
-				//Default thread factory takes care of setting the proper thread context
-				private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
-
-				@Override
-				public Thread newThread(Runnable runnable) {
-					Thread t = defaultFactory.newThread(runnable);
-					t.setPriority(Thread.MIN_PRIORITY);
-					t.setName("CommunityCommons background pool executor thread");
-					return t;
-				}
-
-			});
-		}
-
-		public void execute(final Runnable command) {
-			if (command == null) {
-				throw new NullPointerException("command");
-			}
-
-			final long currenttasknr = tasknr.incrementAndGet();
-			Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Scheduling task #" + currenttasknr);
-
-			executor.submit(new Runnable() {
-				@Override
-				public void run() {
-					Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Running task #" + currenttasknr);
-					try {
-						command.run();
-					} catch (RuntimeException e) {
-						Logging.error(LOGNODE, "[RunMicroflowAsyncInQueue] Execution of task #" + currenttasknr + " failed: " + e.getMessage(), e);
-						throw e; //single thread executor will continue, even if an exception is thrown.
-					}
-					Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Completed task #" + currenttasknr + ". Tasks left: " + (tasknr.get() - currenttasknr));
-				}
-			});
-		}
+	public static Boolean runMicroflowAsyncInQueue(final String microflowName) {
+		return runMicroflowAsyncInQueue(TaskQueue.DEFAULT, microflowName);
 	}
 
-	public static Boolean runMicroflowAsyncInQueue(final String microflowName) {
-		MFSerialExecutor.instance().execute(new Runnable() {
+	/**
+	 * Runs a microflow in the given named queue. See {@link TaskQueue#configure} to control the
+	 * concurrency and capacity of a queue.
+	 */
+	public static Boolean runMicroflowAsyncInQueue(final String queueName, final String microflowName) {
+		TaskQueue.get(queueName).execute(new Runnable() {
 			@Override
 			public void run() {
 				try {
@@ -435,8 +421,13 @@ public class Misc {
 
 	public static Boolean runMicroflowInBackground(final IContext context, final String microflowName,
 		final IMendixObject paramObject) {
+		return runMicroflowInBackground(context, TaskQueue.DEFAULT, microflowName, paramObject);
+	}
 
-		MFSerialExecutor.instance().execute(new Runnable() {
+	public static Boolean runMicroflowInBackground(final IContext context, final String queueName, final String microflowName,
+		final IMendixObject paramObject) {
+
+		TaskQueue.get(queueName).execute(new Runnable() {
 
 			@Override
 			public void run() {
@@ -457,81 +448,76 @@ public class Misc {
 		return true;
 	}
 
-	private interface IBatchItemHandler {
-
-		void exec(IContext context, IMendixObject obj) throws Exception;
-
+	public static Boolean executeMicroflowInBatches(String xpath, final String microflow, int batchsize, boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
+		return executeMicroflowInBatches(xpath, microflow, batchsize, 1, waitUntilFinished, asc);
 	}
 
-	private static class BatchState {
-
-		private int state = 0; //-1 = error, 1 = done.
-		private final IBatchItemHandler callback;
-
-		public BatchState(IBatchItemHandler callback) {
-			this.callback = callback;
-		}
-
-		public void setState(int state) {
-			this.state = state;
-		}
-
-		public int getState() {
-			return state;
-		}
-
-		public void handle(IContext context, IMendixObject obj) throws Exception {
-			callback.exec(context, obj);
-		}
+	/**
+	 * Invokes a microflow for each object returned by the xpath query, processing up to
+	 * <code>threads</code> batches concurrently. Each batch runs in its own system context.
+	 */
+	public static Boolean executeMicroflowInBatches(String xpath, final String microflow, int batchsize, int threads, boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
+		return awaitBatchJob(startMicroflowInBatches(xpath, microflow, batchsize, threads, asc), waitUntilFinished);
 	}
 
-	public static Boolean executeMicroflowInBatches(String xpath, final String microflow, int batchsize, boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
+	/**
+	 * Same as executeMicroflowInBatches, but returns a handle to the running job, which can be used
+	 * to track its progress or to cancel it.
+	 */
+	public static BatchJob startMicroflowInBatches(String xpath, final String microflow, int batchsize, int threads, boolean asc) {
 		Logging.debug(LOGNODE, "[ExecuteInBatches] Starting microflow batch '" + microflow + "...");
 
-		return executeInBatches(xpath, new BatchState(new IBatchItemHandler() {
+		BatchJob job = new BatchJob(microflow, xpath, batchsize, threads, asc, new BatchJob.IBatchItemHandler() {
 
 			@Override
 			public void exec(IContext context, IMendixObject obj) throws Exception {
 				Core.executeAsync(context, microflow, true, obj).get();
 			}
 
-		}), batchsize, waitUntilFinished, asc);
+		});
+		job.start();
+		return job;
 	}
 
 	public static Boolean recommitInBatches(String xpath, int batchsize,
 		boolean waitUntilFinished, Boolean asc) throws CoreException, InterruptedException {
+		return recommitInBatches(xpath, batchsize, 1, waitUntilFinished, asc);
+	}
+
+	public static Boolean recommitInBatches(String xpath, int batchsize, int threads,
+		boolean waitUntilFinished, Boolean asc) throws CoreException, InterruptedException {
+		return awaitBatchJob(startRecommitInBatches(xpath, batchsize, threads, asc), waitUntilFinished);
+	}
+
+	/**
+	 * Same as recommitInBatches, but returns a handle to the running job, which can be used to track
+	 * its progress or to cancel it.
+	 */
+	public static BatchJob startRecommitInBatches(String xpath, int batchsize, int threads, boolean asc) {
 		Logging.debug(LOGNODE, "[ExecuteInBatches] Starting recommit batch...");
 
-		return executeInBatches(xpath, new BatchState(new IBatchItemHandler() {
+		BatchJob job = new BatchJob("recommit", xpath, batchsize, threads, asc, new BatchJob.IBatchItemHandler() {
 
 			@Override
 			public void exec(IContext context, IMendixObject obj) throws Exception {
 				Core.commit(context, obj);
 			}
 
-		}), batchsize, waitUntilFinished, asc);
+		});
+		job.start();
+		return job;
 	}
 
-	public static Boolean executeInBatches(String xpathRaw, BatchState batchState, int batchsize, boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
-		String xpath = xpathRaw.startsWith("//") ? xpathRaw : "//" + xpathRaw;
-
-		long count = Core.retrieveXPathQueryAggregate(Core.createSystemContext(), "count(" + xpath + ")");
-		int loop = (int) Math.ceil(((float) count) / ((float) batchsize));
-
-		Logging.debug(LOGNODE,
-			"[ExecuteInBatches] Starting batch on ~ " + count + " objects divided over ~ " + loop + " batches. "
-			+ (waitUntilFinished ? "Waiting until the batch has finished..." : "")
-		);
-
-		executeInBatchesHelper(xpath, batchsize, 0, batchState, count, asc);
-
+	private static Boolean awaitBatchJob(BatchJob job, boolean waitUntilFinished) throws InterruptedException {
 		if (waitUntilFinished) {
-			while (batchState.getState() == 0) {
-				Thread.sleep(5000);
-			}
-			if (batchState.getState() == 1) {
-				Logging.debug(LOGNODE, "[ExecuteInBatches] Successfully finished batch");
-				return true;
+			Logging.debug(LOGNODE, "[ExecuteInBatches] Waiting until batch job #%d has finished...", job.getId());
+			try {
+				if (job.getResult().get()) {
+					Logging.debug(LOGNODE, "[ExecuteInBatches] Successfully finished batch");
+					return true;
+				}
+			} catch (ExecutionException e) {
+				// already logged by the batch job
 			}
 			Logging.error(LOGNODE, "[ExecuteInBatches] Failed to finish batch. Please check the application log for more details.");
 			return false;
@@ -540,46 +526,25 @@ public class Misc {
 		return true;
 	}
 
-	static void executeInBatchesHelper(final String xpath, final int batchsize, final long last, final BatchState batchState, final long count, final boolean asc) {
-		MFSerialExecutor.instance().execute(new Runnable() {
-
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(200);
-					IContext c = Core.createSystemContext();
-
-					List<IMendixObject> objects = Core.retrieveXPathQuery(c, xpath + (last > 0 ? "[id " + (asc ? "> " : "< ") + last + "]" : ""),
-						batchsize,
-						0,
-						new HashMap<String, String>() {
-						{
-							put("id", asc ? "asc" : "desc");
-						}
-					}
-					);
-
-					//no new objects found :)
-					if (objects.isEmpty()) {
-						Logging.debug(LOGNODE, "[ExecuteInBatches] Succesfully finished batch on ~" + count + " objects.");
-						batchState.setState(1);
-					} else {
-
-						//process objects
-						for (IMendixObject obj : objects) {
-							batchState.handle(c, obj);
-						}
-
-						//invoke next batch
-						executeInBatchesHelper(xpath, batchsize, objects.get(objects.size() - 1).getId().toLong(), batchState, count, asc);
-					}
-				} catch (Exception e) {
-					batchState.setState(-1);
-					throw new RuntimeException("[ExecuteInBatches] Failed to run in batch: " + e.getMessage(), e);
-				}
-			}
+	/**
+	 * @return The batch job with the given id, or null if it is unknown
+	 */
+	public static BatchJob getBatchJob(long id) {
+		return BatchJob.get(id);
+	}
 
-		});
+	/**
+	 * Cancels the batch job with the given id. Objects that are being processed will finish.
+	 *
+	 * @return true if the job was found and still running
+	 */
+	public static boolean cancelBatchJob(long id) {
+		BatchJob job = BatchJob.get(id);
+		if (job == null || job.isDone()) {
+			return false;
+		}
+		job.cancel();
+		return true;
 	}
 
 	/**
@@ -619,37 +584,115 @@ public class Misc {
 		return languageList.get(0);
 	}
 
+	/**
+	 * The amount of memory PDFBox may use per document before it spills to a temporary scratch file
+	 */
+	private static final long PDF_MAX_MAIN_MEMORY = 16L * 1024 * 1024;
+
+	static MemoryUsageSetting pdfMemoryUsageSetting() {
+		return MemoryUsageSetting.setupMixed(PDF_MAX_MAIN_MEMORY);
+	}
+
+	/**
+	 * Merges the PDF documents into a single destination document. The pages of each source are
+	 * copied into the destination, after which the source is closed, so only one source is open at
+	 * a time, and both are kept in temporary scratch files instead of memory. Large archives are
+	 * merged with bounded heap and file handles. Only the pages are copied, not document level parts
+	 * of the sources such as bookmarks and form fields. The result is saved to a temporary file and
+	 * streamed from there into the merged document.
+	 */
 	public static boolean mergePDF(IContext context, List<FileDocument> documents, IMendixObject mergedDocument) throws IOException {
-		if (getMergeMultiplePdfs_MaxAtOnce() <= 0 || documents.size() <= getMergeMultiplePdfs_MaxAtOnce()) {
+		if (getMergeMultiplePdfs_MaxAtOnce() > 0 && documents.size() > getMergeMultiplePdfs_MaxAtOnce()) {
+			throw new IllegalArgumentException("MergeMultiplePDFs: you cannot merge more than " + getMergeMultiplePdfs_MaxAtOnce()
+				+ " PDF files at once. You are trying to merge " + documents.size() + " PDF files.");
+		}
 
-			List<InputStream> sources = new ArrayList<>();
-			try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-				PDFMergerUtility mergePdf = new PDFMergerUtility();
+		Path result = Files.createTempFile("communitycommons-merge", ".pdf");
+		List<InputStream> sources = new ArrayList<>(documents.size());
+		try {
+			for (FileDocument file : documents) {
+				sources.add(new FileDocumentContent(context, file.getMendixObject()));
+			}
 
-				for (FileDocument file : documents) {
-					InputStream content = Core.getFileDocumentContent(context, file.getMendixObject());
-					sources.add(content);
-				}
-				mergePdf.addSources(sources);
+			PDFMergerUtility mergePdf = new PDFMergerUtility();
+			mergePdf.setDocumentMergeMode(PDFMergerUtility.DocumentMergeMode.OPTIMIZE_RESOURCES_MODE);
+			mergePdf.addSources(sources);
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(result), STREAM_BUFFER_SIZE)) {
 				mergePdf.setDestinationStream(out);
-				mergePdf.mergeDocuments(null);
+				mergePdf.mergeDocuments(MemoryUsageSetting.setupTempFileOnly());
+			}
 
-				Core.storeFileDocumentContent(context, mergedDocument, new ByteArrayInputStream(out.toByteArray()));
+			try (InputStream mergedContent = new BufferedInputStream(Files.newInputStream(result), STREAM_BUFFER_SIZE)) {
+				Core.storeFileDocumentContent(context, mergedDocument, mergedContent);
+			}
 
-				out.reset();
-				documents.clear();
-			} catch (IOException e) {
-				throw new RuntimeException("Failed to merge documents" + e.getMessage(), e);
-			} finally { // We cannot use try-with-resources because streams would be prematurely closed
-				for (InputStream is : sources) {
-					is.close();
-				}
+			documents.clear();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to merge documents" + e.getMessage(), e);
+		} finally {
+			for (InputStream source : sources) {
+				source.close();
 			}
+			Files.deleteIfExists(result);
+		}
 
-			return true;
-		} else {
-			throw new IllegalArgumentException("MergeMultiplePDFs: you cannot merge more than " + getMergeMultiplePdfs_MaxAtOnce()
-				+ " PDF files at once. You are trying to merge " + documents.size() + " PDF files.");
+		return true;
+	}
+
+	/**
+	 * The content of a file document, which is opened on the first read and closed as soon as it
+	 * has been read completely, so a merge does not keep every source open
+	 */
+	private static final class FileDocumentContent extends InputStream {
+
+		private final IContext context;
+		private final IMendixObject document;
+		private InputStream content;
+		private boolean ended = false;
+
+		FileDocumentContent(IContext context, IMendixObject document) {
+			this.context = context;
+			this.document = document;
+		}
+
+		private InputStream content() {
+			if (content == null) {
+				content = new BufferedInputStream(Core.getFileDocumentContent(context, document), STREAM_BUFFER_SIZE);
+			}
+			return content;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (ended) {
+				return -1;
+			}
+			int b = content().read();
+			if (b == -1) {
+				close();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (ended) {
+				return -1;
+			}
+			int read = content().read(buffer, offset, length);
+			if (read == -1) {
+				close();
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			ended = true;
+			if (content != null) {
+				content.close();
+				content = null;
+			}
 		}
 	}
 
@@ -666,32 +709,37 @@ public class Misc {
 	 * @throws IOException
 	 */
 	public static boolean overlayPdf(IContext context, IMendixObject generatedDocumentMendixObject, IMendixObject overlayMendixObject, boolean onTopOfContent) throws IOException {
-		Logging.trace(LOGNODE, "Retrieve generated document");
-		try (
-			PDDocument inputDoc = PDDocument.load(Core.getFileDocumentContent(context, generatedDocumentMendixObject));
-			PDDocument overlayDoc = PDDocument.load(Core.getFileDocumentContent(context, overlayMendixObject));
-			ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-			Logging.trace(LOGNODE, "Overlay PDF start, retrieve overlay PDF");
-
-			Logging.trace(LOGNODE, "Perform overlay");
-			Overlay overlay = new Overlay();
-			overlay.setInputPDF(inputDoc);
-			overlay.setDefaultOverlayPDF(overlayDoc);
-			if (onTopOfContent == true) {
-				overlay.setOverlayPosition(Overlay.Position.FOREGROUND);
-			} else {
-				overlay.setOverlayPosition(Overlay.Position.BACKGROUND);
-			}
+		Path overlayed = Files.createTempFile("communitycommons-overlay", ".pdf");
+		try {
+			Logging.trace(LOGNODE, "Retrieve generated document");
+			try (
+				InputStream generatedContent = Core.getFileDocumentContent(context, generatedDocumentMendixObject);
+				InputStream overlayContent = Core.getFileDocumentContent(context, overlayMendixObject);
+				PDDocument inputDoc = PDDocument.load(generatedContent, pdfMemoryUsageSetting());
+				PDDocument overlayDoc = PDDocument.load(overlayContent, pdfMemoryUsageSetting())) {
+				Logging.trace(LOGNODE, "Overlay PDF start, retrieve overlay PDF");
+
+				Logging.trace(LOGNODE, "Perform overlay");
+				Overlay overlay = new Overlay();
+				overlay.setInputPDF(inputDoc);
+				overlay.setDefaultOverlayPDF(overlayDoc);
+				if (onTopOfContent == true) {
+					overlay.setOverlayPosition(Overlay.Position.FOREGROUND);
+				} else {
+					overlay.setOverlayPosition(Overlay.Position.BACKGROUND);
+				}
 
-			Logging.trace(LOGNODE, "Save result in output stream");
+				Logging.trace(LOGNODE, "Save result in temporary file");
 
-			overlay.overlay(new HashMap<>()).save(baos);
+				overlay.overlay(new HashMap<>()).save(overlayed.toFile());
+			}
 
-			Logging.trace(LOGNODE, "Duplicate result in input stream");
-			try (InputStream overlayedContent = new ByteArrayInputStream(baos.toByteArray())) {
+			try (InputStream overlayedContent = new BufferedInputStream(Files.newInputStream(overlayed), STREAM_BUFFER_SIZE)) {
 				Logging.trace(LOGNODE, "Store result in original document");
 				Core.storeFileDocumentContent(context, generatedDocumentMendixObject, overlayedContent);
 			}
+		} finally {
+			Files.deleteIfExists(overlayed);
 		}
 
 		Logging.trace(LOGNODE, "Overlay PDF end");
@@ -23,10 +23,14 @@ import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import system.proxies.FileDocument;
 
 public class ORM {
@@ -66,88 +70,186 @@ public class ORM {
 		return item.getMember(context, member).getState() == MemberState.CHANGED || item.getState() != ObjectState.NORMAL;
 	}
 
+	/**
+	 * Amount of objects retrieved or committed per call while deep cloning
+	 */
+	private static final int CLONE_BATCH_SIZE = 1000;
+
+	/**
+	 * Amount of objects used in a single reverse association query while deep cloning
+	 */
+	private static final int CLONE_REVERSE_QUERY_SIZE = 200;
+
+	/**
+	 * Clones an object graph. The graph is walked breadth first: all objects referred to by one level
+	 * of the graph are retrieved with a single retrieve call, reverse associations are queried once
+	 * per association per level, and the clones of a level are committed in batches.
+	 */
 	public static void deepClone(IContext c, IMendixObject source, IMendixObject target, String membersToSkip, String membersToKeep, String reverseAssociations, String excludeEntities, String excludeModules) throws CoreException {
-		List<String> toskip = Arrays.asList((membersToSkip + ",createdDate,changedDate").split(","));
-		List<String> tokeep = Arrays.asList((membersToKeep + ",System.owner,System.changedBy").split(","));
-		List<String> revAssoc = Arrays.asList(reverseAssociations.split(","));
-		List<String> skipEntities = Arrays.asList(excludeEntities.split(","));
-		List<String> skipModules = Arrays.asList(excludeModules.split(","));
-		Map<IMendixIdentifier, IMendixIdentifier> mappedIDs = new HashMap<IMendixIdentifier, IMendixIdentifier>();
-		duplicate(c, source, target, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedIDs);
+		CloneSpec spec = new CloneSpec(
+			new HashSet<>(Arrays.asList((membersToSkip + ",createdDate,changedDate").split(","))),
+			new HashSet<>(Arrays.asList((membersToKeep + ",System.owner,System.changedBy").split(","))),
+			Arrays.asList(reverseAssociations.split(",")),
+			new HashSet<>(Arrays.asList(excludeEntities.split(","))),
+			new HashSet<>(Arrays.asList(excludeModules.split(","))));
+		Map<IMendixIdentifier, IMendixObject> mappedObjects = new HashMap<IMendixIdentifier, IMendixObject>();
+
+		mappedObjects.put(source.getId(), target);
+		List<IMendixObject> level = Collections.singletonList(source);
+
+		while (!level.isEmpty()) {
+			List<IMendixObject> nextLevel = new ArrayList<IMendixObject>();
+
+			cloneReferencedObjects(c, level, spec, mappedObjects, nextLevel);
+
+			List<IMendixObject> clones = new ArrayList<IMendixObject>(level.size());
+			for (IMendixObject src : level) {
+				IMendixObject tar = mappedObjects.get(src.getId());
+				duplicate(c, src, tar, spec, mappedObjects);
+				clones.add(tar);
+			}
+			for (int i = 0; i < clones.size(); i += CLONE_BATCH_SIZE) {
+				Core.commitWithoutEvents(c, clones.subList(i, Math.min(i + CLONE_BATCH_SIZE, clones.size())));
+			}
+
+			cloneReverseAssociations(c, level, spec, mappedObjects, nextLevel);
+
+			level = nextLevel;
+		}
 	}
 
-	private static void duplicate(IContext ctx, IMendixObject src, IMendixObject tar,
-		List<String> toskip, List<String> tokeep, List<String> revAssoc,
-		List<String> skipEntities, List<String> skipModules,
-		Map<IMendixIdentifier, IMendixIdentifier> mappedObjects) throws CoreException {
-		mappedObjects.put(src.getId(), tar.getId());
+	private static final class CloneSpec {
+
+		final Set<String> toskip;
+		final Set<String> tokeep;
+		final List<String> revAssocs;
+		final Set<String> skipEntities;
+		final Set<String> skipModules;
+
+		CloneSpec(Set<String> toskip, Set<String> tokeep, List<String> revAssocs, Set<String> skipEntities, Set<String> skipModules) {
+			this.toskip = toskip;
+			this.tokeep = tokeep;
+			this.revAssocs = revAssocs;
+			this.skipEntities = skipEntities;
+			this.skipModules = skipModules;
+		}
+
+		boolean skip(String type, String key) {
+			return toskip.contains(key) || toskip.contains(type + key);
+		}
+
+		boolean keep(String type, String key) {
+			return tokeep.contains(key) || tokeep.contains(type + key);
+		}
+
+		boolean isExcluded(IMetaObject meta) {
+			return skipEntities.contains(meta.getName()) || skipModules.contains(meta.getModuleName());
+		}
+	}
+
+	/**
+	 * Retrieves all objects referred to by the given level that have not been cloned yet, and
+	 * creates (uncommitted) clones for them, which are added to the next level.
+	 */
+	private static void cloneReferencedObjects(IContext ctx, List<IMendixObject> level, CloneSpec spec,
+		Map<IMendixIdentifier, IMendixObject> mappedObjects, List<IMendixObject> nextLevel) throws CoreException {
+		Set<IMendixIdentifier> toRetrieve = new LinkedHashSet<IMendixIdentifier>();
+
+		for (IMendixObject src : level) {
+			String type = src.getType() + "/";
+			for (var entry : src.getMembers(ctx).entrySet()) {
+				String key = entry.getKey();
+				IMendixObjectMember<?> m = entry.getValue();
+				if (m.isVirtual() || spec.skip(type, key) || spec.keep(type, key)) {
+					continue;
+				}
+				if (m instanceof MendixObjectReference) {
+					IMendixIdentifier id = ((MendixObjectReference) m).getValue(ctx);
+					if (id != null && !mappedObjects.containsKey(id)) {
+						toRetrieve.add(id);
+					}
+				} else if (m instanceof MendixObjectReferenceSet) {
+					List<IMendixIdentifier> ids = ((MendixObjectReferenceSet) m).getValue(ctx);
+					if (ids != null) {
+						for (IMendixIdentifier id : ids) {
+							if (id != null && !mappedObjects.containsKey(id)) {
+								toRetrieve.add(id);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		List<IMendixIdentifier> ids = new ArrayList<IMendixIdentifier>(toRetrieve);
+		for (int i = 0; i < ids.size(); i += CLONE_BATCH_SIZE) {
+			for (IMendixObject o : Core.retrieveIdList(ctx, ids.subList(i, Math.min(i + CLONE_BATCH_SIZE, ids.size())))) {
+				cloneLater(ctx, o, spec, mappedObjects, nextLevel);
+			}
+		}
+	}
+
+	private static void cloneLater(IContext ctx, IMendixObject src, CloneSpec spec,
+		Map<IMendixIdentifier, IMendixObject> mappedObjects, List<IMendixObject> nextLevel) {
+		// objects of excluded entities or modules are not cloned, references to them are kept as is
+		if (mappedObjects.containsKey(src.getId()) || spec.isExcluded(src.getMetaObject())) {
+			return;
+		}
+		mappedObjects.put(src.getId(), Core.instantiate(ctx, src.getType()));
+		nextLevel.add(src);
+	}
+
+	/**
+	 * @return the id of the clone of the object with the given id, or the id itself if the object
+	 * is not being cloned
+	 */
+	private static IMendixIdentifier getCloneId(IMendixIdentifier id, Map<IMendixIdentifier, IMendixObject> mappedObjects) {
+		IMendixObject clone = mappedObjects.get(id);
+		return clone != null ? clone.getId() : id;
+	}
 
+	private static void duplicate(IContext ctx, IMendixObject src, IMendixObject tar, CloneSpec spec,
+		Map<IMendixIdentifier, IMendixObject> mappedObjects) {
 		Map<String, ? extends IMendixObjectMember<?>> members = src.getMembers(ctx);
 		String type = src.getType() + "/";
+		boolean isFileDocument = isFileDocument(src) || isFileDocument(tar);
 
 		for (var entry : members.entrySet()) {
 			String key = entry.getKey();
-			if (!toskip.contains(key) && !toskip.contains(type + key)) {
+			if (!spec.skip(type, key)) {
 				IMendixObjectMember<?> m = entry.getValue();
-				if (m.isVirtual() || m instanceof MendixAutoNumber) {
+				if (m.isVirtual() || m instanceof MendixAutoNumber) { //skip autonumbers! Ticket 14893
 					continue;
 				}
 
-				boolean keep = tokeep.contains(key) || tokeep.contains(type + key);
+				boolean keep = spec.keep(type, key);
 
 				if (m instanceof MendixObjectReference && !keep && m.getValue(ctx) != null) {
-					IMendixObject o = Core.retrieveId(ctx, ((MendixObjectReference) m).getValue(ctx));
-					IMendixIdentifier refObj = getCloneOfObject(ctx, o, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedObjects);
-					tar.setValue(ctx, key, refObj);
+					tar.setValue(ctx, key, getCloneId(((MendixObjectReference) m).getValue(ctx), mappedObjects));
 				} else if (m instanceof MendixObjectReferenceSet && !keep && m.getValue(ctx) != null) {
 					MendixObjectReferenceSet rs = (MendixObjectReferenceSet) m;
 					List<IMendixIdentifier> res = new ArrayList<IMendixIdentifier>();
 					for (IMendixIdentifier item : rs.getValue(ctx)) {
-						IMendixObject o = Core.retrieveId(ctx, item);
-						IMendixIdentifier refObj = getCloneOfObject(ctx, o, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedObjects);
-						res.add(refObj);
+						res.add(getCloneId(item, mappedObjects));
 					}
 					tar.setValue(ctx, key, res);
-				} else if (m instanceof MendixAutoNumber) //skip autonumbers! Ticket 14893
-				{
-					// do nothing
-				} else if ("__UUID__".equals(key) && (isFileDocument(src) || isFileDocument(tar))) {
+				} else if ("__UUID__".equals(key) && isFileDocument) {
 					// do nothing
 				} else {
 					tar.setValue(ctx, key, m.getValue(ctx));
 				}
 			}
 		}
-		Core.commitWithoutEvents(ctx, tar);
-		duplicateReverseAssociations(ctx, src, tar, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedObjects);
 	}
 
-	private static IMendixIdentifier getCloneOfObject(IContext ctx, IMendixObject src,
-		List<String> toskip, List<String> tokeep, List<String> revAssoc,
-		List<String> skipEntities, List<String> skipModules,
-		Map<IMendixIdentifier, IMendixIdentifier> mappedObjects) throws CoreException {
-		String objType = src.getMetaObject().getName();
-		String modName = src.getMetaObject().getModuleName();
-
-		// if object is already being cloned, return ref to clone
-		if (mappedObjects.containsKey(src.getId())) {
-			return mappedObjects.get(src.getId());
-			// if object should be skipped based on module or entity, return source object
-		} else if (skipEntities.contains(objType) || skipModules.contains(modName)) {
-			return src.getId();
-			// if not already being cloned, create clone
-		} else {
-			IMendixObject clone = Core.instantiate(ctx, src.getType());
-			duplicate(ctx, src, clone, toskip, tokeep, revAssoc, skipEntities, skipModules, mappedObjects);
-			return clone.getId();
-		}
-	}
-
-	private static void duplicateReverseAssociations(IContext ctx, IMendixObject src, IMendixObject tar,
-		List<String> toskip, List<String> tokeep, List<String> revAssocs,
-		List<String> skipEntities, List<String> skipModules,
-		Map<IMendixIdentifier, IMendixIdentifier> mappedObjects) throws CoreException {
-		for (String fullAssocName : revAssocs) {
+	/**
+	 * Finds all objects that refer to the objects of the given level over one of the reverse
+	 * associations, and creates (uncommitted) clones for them, which are added to the next level.
+	 * Their references are pointed to the clones when the next level is duplicated.
+	 */
+	private static void cloneReverseAssociations(IContext ctx, List<IMendixObject> level, CloneSpec spec,
+		Map<IMendixIdentifier, IMendixObject> mappedObjects, List<IMendixObject> nextLevel) throws CoreException {
+		for (String fullAssocName : spec.revAssocs) {
 			String[] parts = fullAssocName.split("/");
 
 			if (parts.length != 1 && parts.length != 3) //specifying entity has no meaning anymore, but remain backward compatible.
@@ -157,31 +259,47 @@ public class ORM {
 
 			String assocname = parts.length == 3 ? parts[1] : parts[0]; //support length 3 for backward compatibility
 
-			IMetaAssociation massoc = src.getMetaObject().getDeclaredMetaAssociationChild(assocname);
-
-			if (massoc != null) {
-				IMetaObject relationParent = massoc.getParent();
-				// if the parent is in the exclude list, we can't clone the parent, and setting the
-				// references to the newly cloned target object will screw up the source data.
-				if (skipEntities.contains(relationParent.getName()) || skipModules.contains(relationParent.getModuleName())) {
-					throw new IllegalArgumentException("A reverse reference has been specified that starts at an entity in the exclude list, this is not possible to clone: '" + fullAssocName + "'");
+			IMetaAssociation massoc = null;
+			List<IMendixIdentifier> children = new ArrayList<IMendixIdentifier>();
+			for (IMendixObject src : level) {
+				IMetaAssociation m = src.getMetaObject().getDeclaredMetaAssociationChild(assocname);
+				if (m != null) {
+					massoc = m;
+					children.add(src.getId());
 				}
+			}
 
-				//MWE: what to do with reverse reference sets? -> to avoid spam creating objects on
-				//reverse references, do not support referenceset (todo: we could keep a map of converted guids and reuse that!)
-				if (massoc.getType() == AssociationType.REFERENCESET) {
-					throw new IllegalArgumentException("It is not possible to clone reverse referencesets: '" + fullAssocName + "'");
+			if (massoc == null) {
+				continue;
+			}
+
+			IMetaObject relationParent = massoc.getParent();
+			// if the parent is in the exclude list, we can't clone the parent, and setting the
+			// references to the newly cloned target object will screw up the source data.
+			if (spec.isExcluded(relationParent)) {
+				throw new IllegalArgumentException("A reverse reference has been specified that starts at an entity in the exclude list, this is not possible to clone: '" + fullAssocName + "'");
+			}
+
+			//MWE: what to do with reverse reference sets? -> to avoid spam creating objects on
+			//reverse references, do not support referenceset (todo: we could keep a map of converted guids and reuse that!)
+			if (massoc.getType() == AssociationType.REFERENCESET) {
+				throw new IllegalArgumentException("It is not possible to clone reverse referencesets: '" + fullAssocName + "'");
+			}
+
+			for (int i = 0; i < children.size(); i += CLONE_REVERSE_QUERY_SIZE) {
+				StringBuilder constraint = new StringBuilder();
+				for (IMendixIdentifier id : children.subList(i, Math.min(i + CLONE_REVERSE_QUERY_SIZE, children.size()))) {
+					if (constraint.length() > 0) {
+						constraint.append(" or ");
+					}
+					constraint.append(assocname).append(" = ").append(id.toLong());
 				}
 
-				List<IMendixObject> objs = Core.createXPathQuery(String.format("//%s[%s=$value]", relationParent.getName(), assocname))
-					.setVariable("value", src)
+				List<IMendixObject> objs = Core.createXPathQuery(String.format("//%s[%s]", relationParent.getName(), constraint))
 					.execute(ctx);
 
 				for (IMendixObject obj : objs) {
-					@SuppressWarnings("unused") // object is unused on purpose
-					IMendixIdentifier refObj = getCloneOfObject(ctx, obj, toskip, tokeep, revAssocs, skipEntities, skipModules, mappedObjects);
-					// setting reference explicitly is not necessary, this has been done in the
-					// duplicate() call.
+					cloneLater(ctx, obj, spec, mappedObjects, nextLevel);
 				}
 			}
 		}
@@ -192,33 +310,49 @@ public class ORM {
 		return true;
 	}
 
-	public static String getValueOfPath(IContext context, IMendixObject substitute, String fullpath, String datetimeformat) throws Exception {
-		String[] path = fullpath.split("/");
-		if (path.length == 1) {
-			IMendixObjectMember<?> member = substitute.getMember(context, path[0]);
+	private static final String DEFAULT_DATETIME_FORMAT = "EEE dd MMM yyyy, HH:mm";
 
-			//special case, see ticket 9135, format datetime.
-			if (member instanceof MendixDateTime) {
-				Date time = ((MendixDateTime) member).getValue(context);
-				if (time == null) {
-					return "";
-				}
-				String f = datetimeformat != null && !datetimeformat.isEmpty() ? datetimeformat : "EEE dd MMM yyyy, HH:mm";
-				return new SimpleDateFormat(f).format(time);
-			}
+	/**
+	 * SimpleDateFormat is not thread safe, so keep one instance per format per thread
+	 */
+	private static final LruCache<String, ThreadLocal<SimpleDateFormat>> dateFormats = new LruCache<>(100);
 
-			if (member instanceof MendixEnum) {
-				String value = member.parseValueToString(context);
-				if (value == null || value.isEmpty()) {
-					return "";
-				}
+	static String formatDateTime(Date time, String datetimeformat) {
+		String f = datetimeformat != null && !datetimeformat.isEmpty() ? datetimeformat : DEFAULT_DATETIME_FORMAT;
+		return dateFormats.get(f, format -> ThreadLocal.withInitial(() -> new SimpleDateFormat(format))).get().format(time);
+	}
 
-				IMetaEnumeration enumeration = ((MendixEnum) member).getEnumeration();
-				IMetaEnumValue evalue = enumeration.getEnumValues().get(value);
-				return Core.getInternationalizedString(context, evalue.getI18NCaptionKey());
+	/**
+	 * Formats the value of a member for display, as used by getValueOfPath and SubstituteTemplate
+	 */
+	static String formatMemberValue(IContext context, IMendixObjectMember<?> member, String datetimeformat) {
+		//special case, see ticket 9135, format datetime.
+		if (member instanceof MendixDateTime) {
+			Date time = ((MendixDateTime) member).getValue(context);
+			if (time == null) {
+				return "";
 			}
-			//default
-			return member.parseValueToString(context);
+			return formatDateTime(time, datetimeformat);
+		}
+
+		if (member instanceof MendixEnum) {
+			String value = member.parseValueToString(context);
+			if (value == null || value.isEmpty()) {
+				return "";
+			}
+
+			IMetaEnumeration enumeration = ((MendixEnum) member).getEnumeration();
+			IMetaEnumValue evalue = enumeration.getEnumValues().get(value);
+			return Core.getInternationalizedString(context, evalue.getI18NCaptionKey());
+		}
+		//default
+		return member.parseValueToString(context);
+	}
+
+	public static String getValueOfPath(IContext context, IMendixObject substitute, String fullpath, String datetimeformat) throws Exception {
+		String[] path = fullpath.split("/");
+		if (path.length == 1) {
+			return formatMemberValue(context, substitute.getMember(context, path[0]), datetimeformat);
 		} else if (path.length == 0) {
 			throw new Exception("communitycommons.ORM.getValueOfPath: Unexpected end of path.");
 		} else {
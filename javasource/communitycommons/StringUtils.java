@@ -85,6 +85,28 @@ public class StringUtils {
 		return hexString.toString();
 	}
 
+	/**
+	 * Compiled regular expressions, so microflows that apply the same expression to many strings
+	 * only compile it once
+	 */
+	private static final LruCache<String, Pattern> PATTERN_CACHE = new LruCache<>(256);
+
+	private static final Pattern MARKS = Pattern.compile("\\p{M}");
+
+	/**
+	 * @return The compiled pattern for the given regular expression, from the cache if possible
+	 */
+	public static Pattern compilePattern(String regex) {
+		return PATTERN_CACHE.get(regex, Pattern::compile);
+	}
+
+	/**
+	 * @return The cache used by compilePattern, for inspecting its hit and miss counts
+	 */
+	public static LruCache<String, Pattern> getPatternCache() {
+		return PATTERN_CACHE;
+	}
+
 	/**
 	 * The default replaceAll microflow function doesn't support capture variables such as $1, $2
 	 * etc. so for that reason we do not deprecate this method.
@@ -96,11 +118,32 @@ public class StringUtils {
 	 */
 	public static String regexReplaceAll(String haystack, String needleRegex,
 										 String replacement) {
-		Pattern pattern = Pattern.compile(needleRegex);
-		Matcher matcher = pattern.matcher(haystack);
+		Matcher matcher = compilePattern(needleRegex).matcher(haystack);
 		return matcher.replaceAll(replacement);
 	}
 
+	/**
+	 * Applies regexReplaceAll to each of the given strings, compiling the pattern only once.
+	 *
+	 * @return The resulting strings, in the same order. Null values are kept as null.
+	 */
+	public static List<String> regexReplaceAll(List<String> haystacks, String needleRegex,
+											   String replacement) {
+		Matcher matcher = compilePattern(needleRegex).matcher("");
+		List<String> res = new ArrayList<>(haystacks.size());
+		for (String haystack : haystacks) {
+			res.add(haystack == null ? null : matcher.reset(haystack).replaceAll(replacement));
+		}
+		return res;
+	}
+
+	/**
+	 * Same as String.split, but uses the pattern cache.
+	 */
+	public static String[] regexSplit(String value, String regex) {
+		return compilePattern(regex).split(value);
+	}
+
 	public static String leftPad(String value, Long amount, String fillCharacter) {
 		if (fillCharacter == null || fillCharacter.length() == 0) {
 			return org.apache.commons.lang3.StringUtils.leftPad(value, amount.intValue(), " ");
@@ -121,20 +164,11 @@ public class StringUtils {
 
 	public static String substituteTemplate(final IContext context, String template,
 											final IMendixObject substitute, final boolean HTMLEncode, final String datetimeformat) {
-		return regexReplaceAll(template, "\\{(@)?([\\w./]+)\\}", (MatchResult match) -> {
-			String value;
-			String path = match.group(2);
-			if (match.group(1) != null) {
-				value = String.valueOf(Core.getConfiguration().getConstantValue(path));
-			} else {
-				try {
-					value = ORM.getValueOfPath(context, substitute, path, datetimeformat);
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				}
-			}
-			return HTMLEncode ? HTMLEncode(value) : value;
-		});
+		if (template == null || template.trim().isEmpty()) // avoid NPE's, save CPU
+		{
+			return "";
+		}
+		return Template.compile(template).render(context, substitute, HTMLEncode, datetimeformat);
 	}
 
 	public static String regexReplaceAll(String source, String regexString, Function<MatchResult, String> replaceFunction) {
@@ -144,7 +178,7 @@ public class StringUtils {
 		}
 
 		StringBuffer resultString = new StringBuffer();
-		Pattern regex = Pattern.compile(regexString);
+		Pattern regex = compilePattern(regexString);
 		Matcher regexMatcher = regex.matcher(source);
 
 		while (regexMatcher.find()) {
@@ -499,7 +533,7 @@ public class StringUtils {
 
 	public static String stringSimplify(String value) {
 		String normalized = Normalizer.normalize(value, Normalizer.Form.NFD);
-		return normalized.replaceAll("\\p{M}", ""); // removes all characters in Unicode Mark category
+		return MARKS.matcher(normalized).replaceAll(""); // removes all characters in Unicode Mark category
 	}
 
 	public static Boolean isStringSimplified(String value) {
@@ -0,0 +1,301 @@
+package communitycommons;
+
+import communitycommons.proxies.LogNodes;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named queue for background tasks, with its own concurrency limit and capacity.
+ *
+ * Queues are created on first use with a concurrency of 1 and an unbounded capacity, which gives
+ * the same behavior as the original single threaded executor. Use {@link #configure} (for example
+ * in an after startup action) to give a queue more threads, a bounded capacity or virtual threads,
+ * so that slow jobs in one queue do not hold up tasks in another.
+ */
+public class TaskQueue {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	public static final String DEFAULT = "default";
+
+	/**
+	 * What to do when a task is submitted to a queue that is at its capacity
+	 */
+	public enum RejectionPolicy {
+		/**
+		 * Throw a RejectedExecutionException
+		 */
+		ABORT,
+		/**
+		 * Block the submitting thread until there is room in the queue
+		 */
+		BLOCK,
+		/**
+		 * Run the task in the submitting thread
+		 */
+		CALLER_RUNS
+	}
+
+	private static final Map<String, TaskQueue> queues = new ConcurrentHashMap<>();
+
+	/**
+	 * Thread.ofVirtual().factory(), looked up reflectively so this class still loads on JVMs
+	 * without virtual thread support. Null if virtual threads are not available.
+	 */
+	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = lookupVirtualThreadFactory();
+
+	private final String name;
+	private final int concurrency;
+	private final int capacity;
+	private final RejectionPolicy rejectionPolicy;
+	private final boolean virtualThreads;
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong tasknr = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final LatencyHistogram waitTime = new LatencyHistogram();
+	private final LatencyHistogram runTime = new LatencyHistogram();
+
+	private TaskQueue(String name, int concurrency, int capacity, RejectionPolicy rejectionPolicy, boolean virtualThreads) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency of queue '" + name + "' should be larger than zero");
+		}
+		this.name = name;
+		this.concurrency = concurrency;
+		this.capacity = capacity;
+		this.rejectionPolicy = rejectionPolicy;
+		this.virtualThreads = virtualThreads && VIRTUAL_THREAD_FACTORY != null;
+
+		if (virtualThreads && VIRTUAL_THREAD_FACTORY == null) {
+			Logging.warn(LOGNODE, "[TaskQueue] Virtual threads are not available in this JVM, queue '" + name + "' uses platform threads");
+		}
+
+		BlockingQueue<Runnable> workQueue = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : new LinkedBlockingQueue<>();
+		executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS, workQueue,
+			createThreadFactory(), createRejectionHandler());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return The queue with the given name, which is created with default settings if it does not
+	 * exist yet.
+	 */
+	public static TaskQueue get(String name) {
+		String queueName = name == null || name.isEmpty() ? DEFAULT : name;
+		return queues.computeIfAbsent(queueName, n -> new TaskQueue(n, 1, 0, RejectionPolicy.BLOCK, false));
+	}
+
+	/**
+	 * (Re)configures a queue. If the queue already exists, it is replaced; tasks that are already
+	 * queued in the old queue are still executed, and tasks submitted through a reference to the old
+	 * queue are passed on to the new one.
+	 *
+	 * @param name The name of the queue
+	 * @param concurrency The maximum amount of tasks of this queue that run at the same time
+	 * @param capacity The maximum amount of waiting tasks, or 0 for unbounded
+	 * @param rejectionPolicy What to do when the queue is full
+	 * @param virtualThreads Run the tasks on virtual threads, if supported by the JVM
+	 * @return The new queue
+	 */
+	public static TaskQueue configure(String name, int concurrency, int capacity, RejectionPolicy rejectionPolicy, boolean virtualThreads) {
+		TaskQueue queue = new TaskQueue(name, concurrency, capacity, rejectionPolicy, virtualThreads);
+		TaskQueue old = queues.put(name, queue);
+		if (old != null) {
+			old.executor.shutdown();
+		}
+		Logging.info(LOGNODE, "[TaskQueue] Configured " + queue);
+		return queue;
+	}
+
+	/**
+	 * @return All queues, ordered by name
+	 */
+	public static List<TaskQueue> getQueues() {
+		List<TaskQueue> res = new ArrayList<>(queues.values());
+		res.sort((a, b) -> a.name.compareTo(b.name));
+		return res;
+	}
+
+	public void execute(final Runnable command) {
+		if (command == null) {
+			throw new NullPointerException("command");
+		}
+
+		final long currenttasknr = tasknr.incrementAndGet();
+		final long enqueued = System.nanoTime();
+		Logging.debug(LOGNODE, "[TaskQueue] Scheduling task #%d in queue '%s'", currenttasknr, name);
+
+		try {
+			submit(command, currenttasknr, enqueued);
+		} catch (RejectedExecutionException e) {
+			// this queue has been replaced by configure while the caller still held it
+			TaskQueue replacement = queues.get(name);
+			if (executor.isShutdown() && replacement != null && replacement != this) {
+				Logging.debug(LOGNODE, "[TaskQueue] Passing task #%d on to the reconfigured queue '%s'", currenttasknr, name);
+				replacement.execute(command);
+				return;
+			}
+			throw e;
+		}
+	}
+
+	private void submit(final Runnable command, final long currenttasknr, final long enqueued) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long started = System.nanoTime();
+				waitTime.record(started - enqueued);
+				Logging.debug(LOGNODE, "[TaskQueue] Running task #%d of queue '%s'", currenttasknr, name);
+				try {
+					command.run();
+					completed.incrementAndGet();
+				} catch (RuntimeException e) {
+					failed.incrementAndGet();
+					Logging.error(LOGNODE, "[TaskQueue] Execution of task #" + currenttasknr + " of queue '" + name + "' failed: " + e.getMessage(), e);
+					return; // the pool will continue with the next task
+				} finally {
+					runTime.record(System.nanoTime() - started);
+				}
+				Logging.debugLazy(LOGNODE, () -> "[TaskQueue] Completed task #" + currenttasknr + " of queue '" + name + "'. Tasks left: " + getDepth());
+			}
+		});
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public RejectionPolicy getRejectionPolicy() {
+		return rejectionPolicy;
+	}
+
+	public boolean usesVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * @return The amount of tasks waiting to be executed
+	 */
+	public int getDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public long getCompletedCount() {
+		return completed.get();
+	}
+
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return The time tasks spent waiting in the queue before being executed
+	 */
+	public LatencyHistogram getWaitTime() {
+		return waitTime;
+	}
+
+	/**
+	 * @return The time tasks took to execute
+	 */
+	public LatencyHistogram getRunTime() {
+		return runTime;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("queue '%s' (concurrency %d, capacity %s, %s%s): %d waiting, %d active, %d completed, %d failed, %d rejected, wait p50 %.1f ms, p99 %.1f ms",
+			name, concurrency, capacity > 0 ? String.valueOf(capacity) : "unbounded", rejectionPolicy,
+			virtualThreads ? ", virtual threads" : "", getDepth(), getActiveCount(), completed.get(), failed.get(),
+			rejected.get(), waitTime.getPercentileMillis(50), waitTime.getPercentileMillis(99));
+	}
+
+	private ThreadFactory createThreadFactory() {
+		final ThreadFactory baseFactory = virtualThreads ? VIRTUAL_THREAD_FACTORY : Executors.defaultThreadFactory();
+		final AtomicInteger threadnr = new AtomicInteger();
+
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread t = baseFactory.newThread(runnable);
+				if (!virtualThreads) {
+					t.setPriority(Thread.MIN_PRIORITY);
+				}
+				t.setName("CommunityCommons queue '" + name + "' thread " + threadnr.incrementAndGet());
+				return t;
+			}
+		};
+	}
+
+	private RejectedExecutionHandler createRejectionHandler() {
+		return (runnable, pool) -> {
+			if (pool.isShutdown()) {
+				throw new RejectedExecutionException("Queue '" + name + "' has been shut down");
+			}
+			// only tasks that are dropped are counted as rejected
+			switch (rejectionPolicy) {
+				case BLOCK:
+					try {
+						pool.getQueue().put(runnable);
+					} catch (InterruptedException e) {
+						rejected.incrementAndGet();
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for room in queue '" + name + "'", e);
+					}
+					break;
+				case CALLER_RUNS:
+					runnable.run();
+					break;
+				default:
+					rejected.incrementAndGet();
+					throw new RejectedExecutionException("Queue '" + name + "' is full (capacity " + capacity + ")");
+			}
+		};
+	}
+
+	private static ThreadFactory lookupVirtualThreadFactory() {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+			MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(builderClass));
+			MethodHandle factory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+			return (ThreadFactory) factory.invoke(ofVirtual.invoke());
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+}
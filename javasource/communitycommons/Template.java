@@ -0,0 +1,171 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.core.objectmanagement.member.MendixObjectReference;
+import com.mendix.core.objectmanagement.member.MendixObjectReferenceSet;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.IMendixObjectMember;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A template as used by SubstituteTemplate, parsed into literal text and placeholders. Parsed
+ * templates are cached, so the template text is only scanned once.
+ *
+ * While rendering, the objects reached over an association are remembered, so placeholders that
+ * share (part of) a path, such as {Guest/Name} and {Guest/Email}, retrieve the associated objects
+ * only once.
+ */
+public class Template {
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\{(@)?([\\w./]+)\\}");
+	private static final LruCache<String, Template> cache = new LruCache<>(500);
+
+	private final List<Object> segments = new ArrayList<>();
+
+	private static final class Placeholder {
+
+		final boolean constant;
+		final String fullpath;
+		final String[] path;
+
+		Placeholder(boolean constant, String fullpath) {
+			this.constant = constant;
+			this.fullpath = fullpath;
+			this.path = fullpath.split("/");
+		}
+	}
+
+	private Template(String template) {
+		Matcher matcher = PLACEHOLDER.matcher(template);
+		int last = 0;
+		while (matcher.find()) {
+			if (matcher.start() > last) {
+				segments.add(template.substring(last, matcher.start()));
+			}
+			segments.add(new Placeholder(matcher.group(1) != null, matcher.group(2)));
+			last = matcher.end();
+		}
+		if (last < template.length()) {
+			segments.add(template.substring(last));
+		}
+	}
+
+	/**
+	 * @return The parsed template, from the cache if it was parsed before
+	 */
+	public static Template compile(String template) {
+		return cache.get(template, Template::new);
+	}
+
+	public static LruCache<String, Template> getCache() {
+		return cache;
+	}
+
+	public String render(IContext context, IMendixObject substitute, boolean HTMLEncode, String datetimeformat) {
+		Map<String, List<IMendixObject>> associated = new HashMap<>();
+		StringBuilder res = new StringBuilder();
+
+		for (Object segment : segments) {
+			if (segment instanceof String) {
+				res.append((String) segment);
+				continue;
+			}
+
+			Placeholder placeholder = (Placeholder) segment;
+			String value;
+			if (placeholder.constant) {
+				value = String.valueOf(Core.getConfiguration().getConstantValue(placeholder.fullpath));
+			} else {
+				try {
+					value = getValueOfPath(context, substitute, placeholder, 0, datetimeformat, associated);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			res.append(HTMLEncode ? StringUtils.HTMLEncode(value) : value);
+		}
+
+		return res.toString();
+	}
+
+	/**
+	 * Same semantics as {@link ORM#getValueOfPath}, but remembers the objects retrieved for each
+	 * association hop in <code>associated</code>.
+	 */
+	private static String getValueOfPath(IContext context, IMendixObject obj, Placeholder placeholder, int index,
+		String datetimeformat, Map<String, List<IMendixObject>> associated) throws Exception {
+		String memberName = placeholder.path[index];
+		IMendixObjectMember<?> member = obj.getMember(context, memberName);
+
+		if (index == placeholder.path.length - 1) {
+			return ORM.formatMemberValue(context, member, datetimeformat);
+		}
+
+		if (member instanceof MendixObjectReference) {
+			List<IMendixObject> targets = getAssociated(context, obj, memberName, member, associated);
+			if (targets.isEmpty()) {
+				return "";
+			}
+			return getValueOfPath(context, targets.get(0), placeholder, index + 1, datetimeformat, associated);
+		} else if (member instanceof MendixObjectReferenceSet) {
+			StringBuilder res = new StringBuilder();
+			for (IMendixObject target : getAssociated(context, obj, memberName, member, associated)) {
+				res.append(", ");
+				res.append(getValueOfPath(context, target, placeholder, index + 1, datetimeformat, associated));
+			}
+			return res.length() > 1 ? res.substring(2) : "";
+		} else {
+			throw new Exception("communitycommons.ORM.getValueOfPath: Not a valid reference: '" + memberName + "' in '" + String.join("/", Arrays.copyOfRange(placeholder.path, index, placeholder.path.length)) + "'");
+		}
+	}
+
+	private static List<IMendixObject> getAssociated(IContext context, IMendixObject obj, String memberName,
+		IMendixObjectMember<?> member, Map<String, List<IMendixObject>> associated) throws CoreException {
+		String key = obj.getId().toLong() + "/" + memberName;
+		List<IMendixObject> res = associated.get(key);
+		if (res != null) {
+			return res;
+		}
+
+		if (member instanceof MendixObjectReference) {
+			IMendixIdentifier id = ((MendixObjectReference) member).getValue(context);
+			IMendixObject target = id == null ? null : Core.retrieveId(context, id);
+			res = target == null ? Collections.emptyList() : Collections.singletonList(target);
+		} else {
+			List<IMendixIdentifier> ids = ((MendixObjectReferenceSet) member).getValue(context);
+			res = new ArrayList<>();
+			if (ids != null && !ids.isEmpty()) {
+				List<IMendixIdentifier> nonNullIds = new ArrayList<>(ids.size());
+				for (IMendixIdentifier id : ids) {
+					if (id != null) {
+						nonNullIds.add(id);
+					}
+				}
+				// retrieve the whole set at once, but keep the order of the reference set
+				Map<IMendixIdentifier, IMendixObject> byId = new HashMap<>();
+				for (IMendixObject target : Core.retrieveIdList(context, nonNullIds)) {
+					byId.put(target.getId(), target);
+				}
+				for (IMendixIdentifier id : nonNullIds) {
+					IMendixObject target = byId.get(id);
+					if (target != null) {
+						res.add(target);
+					}
+				}
+			}
+		}
+
+		associated.put(key, res);
+		return res;
+	}
+}
@@ -6,20 +6,38 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.translate.AggregateTranslator;
@@ -32,6 +50,9 @@ import com.mendix.core.CoreException;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+
+import communitycommons.proxies.LogNodes;
 
 public class XPath<T> {
 	/**
@@ -91,6 +112,13 @@ public class XPath<T> {
 	public static final String MonthLength = "[%MonthLength%]";
 	public static final String YearLength = "[%YearLength%]";
 
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	/**
+	 * Default amount of objects committed or deleted per call by the bulk operations
+	 */
+	public static final int DEFAULT_BULK_SIZE = 1000;
+
 	private String entity;
 	private int offset = 0;
 	private int limit = -1;
@@ -387,28 +415,95 @@ public class XPath<T> {
 
 	}
 
+	/**
+	 * Creations done by findOrCreateSynchronized that are currently running, by entity and keys.
+	 * Concurrent calls for the same keys wait for the running creation instead of creating a
+	 * duplicate, while calls for different keys do not block each other.
+	 */
+	private static final Map<List<String>, CompletableFuture<IMendixObject>> inFlightCreations = new ConcurrentHashMap<List<String>, CompletableFuture<IMendixObject>>();
+	private static final AtomicLong synchronizedCreations = new AtomicLong();
+	private static final AtomicLong coalescedCreations = new AtomicLong();
+	private static final LatencyHistogram coalescedWaitTime = new LatencyHistogram();
+
 	public T findOrCreateSynchronized(Object... keysAndValues) throws CoreException, InterruptedException {
 		T res = findFirst(keysAndValues);
 
 		if (res != null) {
 			return res;
-		} else {
-			synchronized (Core.getMetaObject(entity)) {
-				IContext synchronizedContext = context.getSession().createContext().createSudoClone();
-				try {
-					synchronizedContext.startTransaction();
-					res = createProxy(synchronizedContext, proxyClass,
-						XPath.create(synchronizedContext, entity).findOrCreate(keysAndValues));
-					synchronizedContext.endTransaction();
-					return res;
-				} catch (CoreException e) {
-					if (synchronizedContext.isInTransaction()) {
-						synchronizedContext.rollbackTransaction();
-					}
-					throw e;
-				}
+		}
+
+		// sorted by attribute, so the same lookup with the pairs in another order gets the same key
+		Map<String, String> sortedKeys = new TreeMap<String, String>();
+		for (int i = 0; i < keysAndValues.length; i += 2)
+			sortedKeys.put(String.valueOf(keysAndValues[i]), valueToXPathValue(keysAndValues[i + 1]));
+
+		List<String> key = new ArrayList<String>(keysAndValues.length + 1);
+		key.add(entity);
+		for (Map.Entry<String, String> keyAndValue : sortedKeys.entrySet()) {
+			key.add(keyAndValue.getKey());
+			key.add(keyAndValue.getValue());
+		}
+
+		CompletableFuture<IMendixObject> creation = new CompletableFuture<IMendixObject>();
+		CompletableFuture<IMendixObject> running = inFlightCreations.putIfAbsent(key, creation);
+
+		if (running != null) {
+			// someone else is creating this very object, wait for it
+			coalescedCreations.incrementAndGet();
+			long start = System.nanoTime();
+			try {
+				return createProxy(context, proxyClass, running.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof CoreException)
+					throw (CoreException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			} finally {
+				coalescedWaitTime.record(System.nanoTime() - start);
 			}
 		}
+
+		synchronizedCreations.incrementAndGet();
+		IContext synchronizedContext = context.getSession().createContext().createSudoClone();
+		try {
+			synchronizedContext.startTransaction();
+			IMendixObject obj = XPath.create(synchronizedContext, entity).findOrCreate(keysAndValues);
+			synchronizedContext.endTransaction();
+			signalCommit(entity);
+			creation.complete(obj);
+			return createProxy(synchronizedContext, proxyClass, obj);
+		} catch (CoreException | RuntimeException e) {
+			if (synchronizedContext.isInTransaction()) {
+				synchronizedContext.rollbackTransaction();
+			}
+			creation.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlightCreations.remove(key, creation);
+		}
+	}
+
+	/**
+	 * @return The amount of findOrCreateSynchronized calls that did not find an object and created
+	 * one (or found one that was created in the meantime)
+	 */
+	public static long getSynchronizedCreationCount() {
+		return synchronizedCreations.get();
+	}
+
+	/**
+	 * @return The amount of findOrCreateSynchronized calls that waited for a concurrent call with
+	 * the same keys, instead of creating the object themselves
+	 */
+	public static long getCoalescedCreationCount() {
+		return coalescedCreations.get();
+	}
+
+	/**
+	 * @return The time findOrCreateSynchronized calls spent waiting for a concurrent call with the
+	 * same keys
+	 */
+	public static LatencyHistogram getCoalescedCreationWaitTime() {
+		return coalescedWaitTime;
 	}
 
 	public T findFirst(Object... keysAndValues)
@@ -439,8 +534,9 @@ public class XPath<T> {
 		for (int i = 0; i < keysAndValues.length; i += 2)
 			newObj.setValue(context, String.valueOf(keysAndValues[i]), toMemberValue(keysAndValues[i + 1]));
 
-		if (autoCommit)
+		if (autoCommit) {
 			Core.commit(context, newObj);
+		}
 
 		return createProxy(context, proxyClass, newObj);
 	}
@@ -468,71 +564,184 @@ public class XPath<T> {
 	 */
 	public <U> ImmutablePair<List<T>, List<T>> syncDatabaseWithCollection(Collection<U> currentCollection,
 									      Object comparisonAttribute, boolean autoDelete, Object... keysAndValues) throws CoreException {
+		return syncDatabaseWithCollection(DEFAULT_BULK_SIZE, currentCollection, comparisonAttribute, autoDelete, keysAndValues);
+	}
+
+	/**
+	 * Same as {@link #syncDatabaseWithCollection(Collection, Object, boolean, Object...)}, but
+	 * with a configurable chunk size. Existing objects are read in pages of
+	 * <code>batchsize</code> with the context of this XPath, and new and superfluous objects are committed and deleted
+	 * <code>batchsize</code> objects at a time, using a single commit or delete call per chunk.
+	 */
+	public <U> ImmutablePair<List<T>, List<T>> syncDatabaseWithCollection(int batchsize, Collection<U> currentCollection,
+									      Object comparisonAttribute, boolean autoDelete, Object... keysAndValues) throws CoreException {
 		if (builder.length() > 0)
 			throw new IllegalStateException(
 				"syncDatabaseWithCollection can only be used on XPath which do not have constraints already");
+		if (batchsize < 1)
+			throw new IllegalArgumentException("Batchsize should be larger than zero");
 
 		List<T> added = new ArrayList<T>();
 		List<T> removed = new ArrayList<T>();
+		List<IMendixObject> toDelete = new ArrayList<IMendixObject>();
+		String attribute = String.valueOf(comparisonAttribute);
 
 		Set<U> col = new HashSet<U>(currentCollection);
 
 		for (int i = 0; i < keysAndValues.length; i += 2)
 			eq(keysAndValues[i], keysAndValues[i + 1]);
 
-		for (IMendixObject existingItem : allMendixObjects()) {
-			// Item is still available
-			if (col.remove(existingItem.getValue(context, String.valueOf(comparisonAttribute))))
-				continue;
+		long start = System.nanoTime();
+		// read with the context of the caller, so objects created or changed in its transaction are seen
+		try (PageSpliterator items = new PageSpliterator(batchsize, false)) {
+			Iterator<IMendixObject> it = Spliterators.iterator(items);
+			while (it.hasNext()) {
+				IMendixObject existingItem = it.next();
+				// Item is still available
+				if (col.remove(existingItem.getValue(context, attribute)))
+					continue;
+
+				// No longer available
+				removed.add(createProxy(context, proxyClass, existingItem));
+				toDelete.add(existingItem);
+			}
+		}
+		long read = System.nanoTime();
 
-			// No longer available
-			removed.add(createProxy(context, proxyClass, existingItem));
-			if (autoDelete)
-				Core.delete(context, existingItem);
+		if (autoDelete) {
+			for (int i = 0; i < toDelete.size(); i += batchsize)
+				Core.delete(context, toDelete.subList(i, Math.min(i + batchsize, toDelete.size())));
 		}
+		long deleted = System.nanoTime();
 
 		// Some items where not found in the database
+		List<IMendixObject> toCommit = new ArrayList<IMendixObject>(Math.min(batchsize, col.size()));
 		for (U value : col) {
+			IMendixObject newObj = Core.instantiate(context, entity);
+			for (int i = 0; i < keysAndValues.length; i += 2)
+				newObj.setValue(context, String.valueOf(keysAndValues[i]), toMemberValue(keysAndValues[i + 1]));
+			newObj.setValue(context, attribute, toMemberValue(value));
 
-			// In apache lang3, this would just be: ArrayUtils.addAll(keysAndValues,
-			// comparisonAttribute, value)
-			Object[] args = new Object[keysAndValues.length + 2];
-			for (int i = 0; i < keysAndValues.length; i++)
-				args[i] = keysAndValues[i];
-			args[keysAndValues.length] = comparisonAttribute;
-			args[keysAndValues.length + 1] = value;
+			toCommit.add(newObj);
+			added.add(createProxy(context, proxyClass, newObj));
 
-			T newItem = constructInstance(true, args);
-			added.add(newItem);
+			if (toCommit.size() == batchsize) {
+				Core.commit(context, toCommit);
+				toCommit.clear();
+			}
 		}
+		if (!toCommit.isEmpty())
+			Core.commit(context, toCommit);
+		long created = System.nanoTime();
+
+		Logging.debug(LOGNODE,
+			"[SyncDatabaseWithCollection] %s: read existing objects in %d ms, %s %d objects in %d ms, created %d objects in %d ms",
+			entity, TimeUnit.NANOSECONDS.toMillis(read - start), autoDelete ? "deleted" : "found", removed.size(),
+			TimeUnit.NANOSECONDS.toMillis(deleted - read), added.size(), TimeUnit.NANOSECONDS.toMillis(created - deleted));
 
 		// Oké, stupid, Pair is also only available in apache lang3, so lets use a
 		// simple pair implementation for now
 		return ImmutablePair.of(added, removed);
 	}
 
-	public T firstOrWait(long timeoutMSecs) throws CoreException, InterruptedException {
-		IMendixObject result = null;
+	/**
+	 * Wakes up threads waiting in firstOrWait for objects of the given entity (or one of its
+	 * generalizations). All commits in this runtime, including those of microflows, are signalled
+	 * by an after commit listener. That listener runs before the committing transaction ends, so
+	 * waiters may not see the objects yet and find them on the next poll instead; call this after
+	 * ending a transaction to let waiters find its objects right away.
+	 *
+	 * @param entityName The entity of the committed objects
+	 */
+	public static void signalCommit(String entityName) {
+		if (commitSignals.isEmpty())
+			return;
+
+		IMetaObject meta = Core.getMetaObject(entityName);
+		while (meta != null) {
+			CommitSignal signal = commitSignals.get(meta.getName());
+			if (signal != null)
+				signal.signal();
+			meta = meta.getSuperObject();
+		}
+	}
 
-		long start = System.currentTimeMillis();
-		int sleepamount = 200;
-		int loopcount = 0;
+	private static final Map<String, CommitSignal> commitSignals = new ConcurrentHashMap<String, CommitSignal>();
+	private static final AtomicBoolean commitListenerRegistered = new AtomicBoolean();
+	private static final long FIRST_POLL_INTERVAL = 200;
+	private static final long MAX_POLL_INTERVAL = 2000;
 
-		while (result == null) {
-			loopcount += 1;
-			result = firstMendixObject();
+	/**
+	 * Registers the after commit listener that signals commits, once the first thread waits
+	 */
+	private static void registerCommitListener() {
+		if (!commitListenerRegistered.compareAndSet(false, true))
+			return;
+
+		Core.getListenersRegistry().registerAfterCommitListener(objects -> {
+			if (commitSignals.isEmpty())
+				return;
+			Set<String> entities = new HashSet<String>();
+			for (IMendixObject object : objects) {
+				if (entities.add(object.getType()))
+					signalCommit(object.getType());
+			}
+		});
+	}
 
-			long now = System.currentTimeMillis();
+	private static final class CommitSignal {
+		private long version = 0;
 
-			if (start + timeoutMSecs < now) // Time expired
+		synchronized long version() {
+			return version;
+		}
+
+		synchronized void signal() {
+			version += 1;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until a commit happened after the given version, or until the timeout expires
+		 */
+		synchronized void await(long seenVersion, long timeoutMSecs) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeoutMSecs;
+			long remaining = timeoutMSecs;
+			while (version == seenVersion && remaining > 0) {
+				wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Returns the first object matching this query, waiting at most timeoutMSecs for it to appear.
+	 *
+	 * The query is retried as soon as an object of this entity is committed in this runtime (see
+	 * {@link #signalCommit(String)}). Commits that are not visible yet when they are signalled, and
+	 * commits on other cluster nodes, are picked up by polling, starting every 200 ms.
+	 */
+	public T firstOrWait(long timeoutMSecs) throws CoreException, InterruptedException {
+		registerCommitListener();
+		CommitSignal signal = commitSignals.computeIfAbsent(entity, e -> new CommitSignal());
+
+		long deadline = System.currentTimeMillis() + timeoutMSecs;
+		long pollInterval = FIRST_POLL_INTERVAL;
+
+		IMendixObject result;
+		while (true) {
+			long seenVersion = signal.version();
+			result = firstMendixObject();
+			if (result != null)
 				break;
 
-			if (loopcount % 5 == 0)
-				sleepamount = (int)(sleepamount * 1.5);
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) // Time expired
+				break;
 
-			// not expired, wait a bit
-			if (result == null)
-				Thread.sleep(sleepamount);
+			signal.await(seenVersion, Math.min(remaining, pollInterval));
+			// a signalled commit may not be visible until its transaction ends, so check again soon
+			pollInterval = signal.version() != seenVersion ? FIRST_POLL_INTERVAL : Math.min(pollInterval * 3 / 2, MAX_POLL_INTERVAL);
 		}
 
 		return createProxy(context, proxyClass, result);
@@ -752,6 +961,180 @@ public class XPath<T> {
 		}
 	}
 
+	/**
+	 * Shared pool used to prefetch pages and to run parallel batches. The amount of concurrently
+	 * running items is limited per batch call.
+	 */
+	private static final ExecutorService BATCH_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		private final AtomicInteger threadnr = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread t = defaultFactory.newThread(runnable);
+			t.setName("CommunityCommons XPath batch thread " + threadnr.incrementAndGet());
+			return t;
+		}
+	});
+
+	/**
+	 * Iterates over the results of a query page by page. While the current page is consumed, the
+	 * next page is already being retrieved on the batch pool.
+	 *
+	 * Prefetching needs a context of its own, because the consumer may use the context of the
+	 * XPath at the same time. That context only sees committed data, so pages are only prefetched
+	 * if the context of the XPath is not in a transaction. Otherwise every page is retrieved with
+	 * the context of the XPath when it is needed, so uncommitted changes of the transaction are
+	 * seen and the reads take part in it.
+	 *
+	 * If the query is sorted on id only (or not sorted at all), pages are retrieved using a keyset
+	 * constraint on the id of the last object of the previous page, so that deep pages are as cheap
+	 * as the first one. Otherwise it falls back to offset based paging.
+	 */
+	private final class PageSpliterator implements Spliterator<IMendixObject>, AutoCloseable {
+		private final int batchsize;
+		private final String xpath;
+		private final Map<String, String> sort;
+		private final IContext fetchContext;
+		private final boolean prefetch;
+		private final boolean keyset;
+		private final boolean asc;
+
+		private long remaining;
+		private int nextOffset;
+		private List<IMendixObject> page = Collections.emptyList();
+		private int index = 0;
+		private Future<List<IMendixObject>> next;
+		private int nextAmount;
+
+		PageSpliterator(int batchsize) {
+			this(batchsize, !context.isInTransaction());
+		}
+
+		/**
+		 * @param prefetch Retrieve the next page in the background, on a separate context. Use false
+		 * to retrieve all pages with the context of the XPath.
+		 */
+		PageSpliterator(int batchsize, boolean prefetch) {
+			if (batchsize < 1)
+				throw new IllegalArgumentException("Batchsize should be larger than zero");
+
+			this.batchsize = batchsize;
+			this.xpath = getXPath();
+			this.keyset = sorting.isEmpty() || (sorting.size() == 1 && sorting.containsKey(ID));
+			this.asc = !"desc".equals(sorting.get(ID));
+			this.sort = keyset ? Collections.singletonMap(ID, asc ? "asc" : "desc") : new LinkedHashMap<String, String>(sorting);
+			this.remaining = limit > -1 ? limit : Long.MAX_VALUE;
+			this.nextOffset = offset;
+
+			this.prefetch = prefetch;
+			if (prefetch) {
+				// the consumer may use the context of the XPath while we are fetching, so use our own
+				IContext c = context.getSession().createContext();
+				this.fetchContext = context.isSudo() ? c.createSudoClone() : c;
+			} else {
+				this.fetchContext = context;
+			}
+
+			this.next = fetch(null);
+		}
+
+		private Future<List<IMendixObject>> fetch(IMendixObject lastOfPreviousPage) {
+			final int amount = (int) Math.min(batchsize, remaining);
+			if (amount == 0)
+				return null;
+			remaining -= amount;
+			nextAmount = amount;
+
+			final String query = keyset && lastOfPreviousPage != null
+				? xpath + "[" + ID + (asc ? " > " : " < ") + lastOfPreviousPage.getId().toLong() + "]"
+				: xpath;
+			final int pageOffset = keyset && lastOfPreviousPage != null ? 0 : nextOffset;
+			nextOffset += amount;
+
+			Callable<List<IMendixObject>> retrieve = () -> Core.retrieveXPathQuery(fetchContext, query, amount, pageOffset, sort);
+			// without prefetching, the page is retrieved in the consuming thread once it is needed
+			return prefetch ? BATCH_POOL.submit(retrieve) : new FutureTask<List<IMendixObject>>(retrieve);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super IMendixObject> action) {
+			while (index >= page.size()) {
+				if (next == null)
+					return false;
+
+				if (!prefetch)
+					((FutureTask<?>) next).run();
+				try {
+					page = next.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while retrieving '" + xpath + "'", e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Failed to retrieve '" + xpath + "': " + e.getCause().getMessage(), e.getCause());
+				}
+				index = 0;
+
+				// a partial page means there is no more data; otherwise prefetch the next page
+				next = page.size() < nextAmount || page.isEmpty() ? null : fetch(page.get(page.size() - 1));
+			}
+
+			action.accept(page.get(index++));
+			return true;
+		}
+
+		@Override
+		public Spliterator<IMendixObject> trySplit() {
+			// hand off the rest of the current page, so parallel streams can work on it
+			if (page.size() - index < 2)
+				return null;
+			Spliterator<IMendixObject> res = Spliterators.spliterator(page.subList(index, page.size()), ORDERED | NONNULL);
+			index = page.size();
+			return res;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+
+		@Override
+		public void close() {
+			if (next != null) {
+				next.cancel(true);
+				next = null;
+			}
+		}
+	}
+
+	/**
+	 * Streams all items in this xpath query. Items are retrieved in pages of the given size, and the
+	 * next page is prefetched while the current page is being processed. Only two pages are kept in
+	 * memory at any time. If the context is in a transaction, pages are not prefetched but retrieved
+	 * in that transaction, so uncommitted changes are seen.
+	 *
+	 * Queries without sorting, or sorted on id only, are paged using the id of the last retrieved
+	 * object, so the cost of a page does not depend on how deep into the result it is.
+	 *
+	 * Close the stream (or use try-with-resources) when it is not consumed completely.
+	 *
+	 * @param batchsize The amount of objects retrieved per page
+	 * @return A sequential stream. Calling parallel() on it processes each page in parallel.
+	 */
+	public Stream<T> stream(int batchsize) {
+		assertEmptyStack();
+
+		final PageSpliterator items = new PageSpliterator(batchsize);
+		return StreamSupport.stream(items, false)
+			.map(item -> createProxy(context, proxyClass, item))
+			.onClose(items::close);
+	}
+
 	/**
 	 * Retreives all items in this xpath query in batches of a limited size.
 	 * Not that this function does not start a new transaction for all the batches,
@@ -766,45 +1149,30 @@ public class XPath<T> {
 	 * @throws CoreException
 	 */
 	public void batch(int batchsize, IBatchProcessor<T> batchProcessor) throws CoreException {
-		if (sorting.isEmpty())
-			addSortingAsc(XPath.ID);
+		assertEmptyStack();
 
 		final long itemcount = count();
-
-		int baseoffset = offset;
-		int baselimit = limit;
-
-		boolean useBaseLimit = baselimit > -1;
-
-		offset(baseoffset);
-		List<T> data;
-
 		long i = 0;
 
-		do {
-			int newlimit = useBaseLimit ? Math.min(batchsize, baseoffset + baselimit - offset) : batchsize;
-			if (newlimit == 0)
-				break; // where done, no more data is needed
-
-			limit(newlimit);
-			data = all();
-
-			for (T item : data) {
+		try (PageSpliterator items = new PageSpliterator(batchsize)) {
+			Iterator<IMendixObject> it = Spliterators.iterator(items);
+			while (it.hasNext()) {
+				T item = createProxy(context, proxyClass, it.next());
 				i += 1;
 				try {
 					batchProcessor.onItem(item, i, Math.max(i, itemcount));
 				} catch (Exception e) {
 					throw new RuntimeException(String.format("Failed to execute batch on '%s' offset %d: %s", this,
-						offset, e.getMessage()), e);
+						i - 1, e.getMessage()), e);
 				}
 			}
-
-			offset(offset + data.size());
-		} while (data.size() > 0);
+		}
 	}
 
 	/**
-	 * Batch with parallelization.
+	 * Batch with parallelization. Items are processed on a shared pool, with at most
+	 * <code>threads</code> items of this batch running at the same time, while the next page is
+	 * retrieved in the background.
 	 *
 	 * IMPORTANT NOTE: DO NOT USE THE CONTEXT OF THE XPATH OBJECT ITSELF INSIDE THE
 	 * BATCH PROCESSOR!
@@ -821,36 +1189,39 @@ public class XPath<T> {
 	 */
 	public void batch(int batchsize, int threads, final IBatchProcessor<T> batchProcessor)
 		throws CoreException, InterruptedException, ExecutionException {
-		if (sorting.isEmpty())
-			addSortingAsc(XPath.ID);
-
-		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		if (threads < 1)
+			throw new IllegalArgumentException("The amount of threads should be larger than zero");
+		assertEmptyStack();
 
 		final long itemcount = count();
+		final Semaphore window = new Semaphore(threads);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
 
 		int progress = 0;
-		List<Future<?>> futures = new ArrayList<Future<?>>(batchsize); // no need to synchronize
-
-		offset(0);
-		limit(batchsize);
-
-		List<IMendixObject> data = allMendixObjects();
 
-		while (data.size() > 0) {
-			for (final IMendixObject item : data) {
-				futures.add(pool.submit(new ParallelJobRunner<T>(this, batchProcessor, item, progress, itemcount)));
+		try (PageSpliterator items = new PageSpliterator(batchsize)) {
+			Iterator<IMendixObject> it = Spliterators.iterator(items);
+			while (failure.get() == null && it.hasNext()) {
+				final ParallelJobRunner<T> runner = new ParallelJobRunner<T>(this, batchProcessor, it.next(), progress, itemcount);
 				progress += 1;
-			}
-
-			while (!futures.isEmpty())
-				futures.remove(0).get(); // wait for all futures before proceeding to next iteration
 
-			offset(offset + data.size());
-			data = allMendixObjects();
+				window.acquire();
+				BATCH_POOL.execute(() -> {
+					try {
+						runner.call();
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					} finally {
+						window.release();
+					}
+				});
+			}
+		} finally {
+			window.acquire(threads); // wait for all running items before returning
 		}
 
-		if (pool.shutdownNow().size() > 0)
-			throw new IllegalStateException("Not all tasks where finished!");
+		if (failure.get() != null)
+			throw new ExecutionException(failure.get().getMessage(), failure.get());
 	}
 
 	public static Class<?> getProxyClassForEntityName(String entityname) {
@@ -865,14 +1236,39 @@ public class XPath<T> {
 	}
 
 	public boolean deleteAll() throws CoreException {
-		limit(1000);
+		return deleteAll(DEFAULT_BULK_SIZE);
+	}
+
+	/**
+	 * Deletes all objects matching this query, <code>batchsize</code> objects per delete call.
+	 *
+	 * @return false if a delete call failed; objects deleted before that remain deleted
+	 */
+	public boolean deleteAll(int batchsize) throws CoreException {
+		limit(batchsize);
+		long retrieveTime = 0;
+		long deleteTime = 0;
+		long total = 0;
+
+		long start = System.nanoTime();
 		List<IMendixObject> objs = allMendixObjects();
+		retrieveTime += System.nanoTime() - start;
+
 		while (!objs.isEmpty()) {
-			if (!Core.delete(context, objs.toArray(new IMendixObject[objs.size()])))
+			start = System.nanoTime();
+			boolean success = Core.delete(context, objs);
+			deleteTime += System.nanoTime() - start;
+			if (!success)
 				return false; // TODO: throw?
+			total += objs.size();
 
+			start = System.nanoTime();
 			objs = allMendixObjects();
+			retrieveTime += System.nanoTime() - start;
 		}
+
+		Logging.debug(LOGNODE, "[DeleteAll] %s: deleted %d objects, retrieving took %d ms, deleting took %d ms",
+			entity, total, TimeUnit.NANOSECONDS.toMillis(retrieveTime), TimeUnit.NANOSECONDS.toMillis(deleteTime));
 		return true;
 	}
 
@@ -15,6 +15,7 @@ import com.mendix.core.Core;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.webui.CustomJavaAction;
+import communitycommons.StringUtils;
 import communitycommons.proxies.SplitItem;
 
 public class StringSplit extends CustomJavaAction<java.util.List<IMendixObject>>
@@ -38,7 +39,7 @@ public class StringSplit extends CustomJavaAction<java.util.List<IMendixObject>>
 	{
 		// BEGIN USER CODE
 		List<IMendixObject> returnList = new ArrayList<IMendixObject>();
-		String[] parts = this.inputString.split(this.splitParameter);
+		String[] parts = StringUtils.regexSplit(this.inputString, this.splitParameter);
 		Integer index = 0;
 		for (String part : parts) {
 			IMendixObject splitPart = Core.instantiate(getContext(), SplitItem.getType());
@@ -129,6 +129,7 @@ public class ExportCSV extends CustomJavaAction<java.lang.Boolean>
 			
 		} finally {
 			logger.debug("Closing resources..");
+			context.getData().remove(CSV.CONTEXT_WRITER_PLAN);
 			try {
 				writer.close();
 			} catch (Exception e) {}
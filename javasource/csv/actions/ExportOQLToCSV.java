@@ -14,8 +14,6 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.util.Date;
-import java.util.Map.Entry;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import com.mendix.core.Core;
@@ -23,16 +21,14 @@ import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataRow;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataTable;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataTableSchema;
-import com.mendix.systemwideinterfaces.connectionbus.requests.IParameterMap;
-import com.mendix.systemwideinterfaces.connectionbus.requests.IRetrievalSchema;
-import com.mendix.systemwideinterfaces.connectionbus.requests.types.IOQLTextGetRequest;
 import com.mendix.systemwideinterfaces.core.IContext;
-import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.webui.CustomJavaAction;
 import com.opencsv.CSVWriter;
 import csv.impl.CSV;
 import oql.implementation.OQL;
+import oql.implementation.OQLPager;
+import oql.implementation.OQLStatement;
 import system.proxies.FileDocument;
 
 public class ExportOQLToCSV extends CustomJavaAction<IMendixObject>
@@ -76,7 +72,11 @@ public class ExportOQLToCSV extends CustomJavaAction<IMendixObject>
 	public IMendixObject executeAction() throws Exception
 	{
 		// BEGIN USER CODE
-		final int PAGE_SIZE = 10000;
+		final int PAGE_SIZE = OQLPager.DEFAULT_PAGE_SIZE;
+		
+		OQLStatement oqlStatement = new OQLStatement(statement, OQL.getNextParameters());
+		String keyColumn = OQL.getNextKeyColumn();
+		OQL.resetParameters();
 		
 		ILogNode logger = CSV.getLogger();
 		String suffix = ".csv";
@@ -105,52 +105,33 @@ public class ExportOQLToCSV extends CustomJavaAction<IMendixObject>
 		
 		logger.debug("Executing query");
 		
-		int offset = 0;
-		while(true) {
-			logger.debug("Executing query offset " + offset);
-			IContext context = getContext().createSudoClone();
-			IDataTable results = Core.retrieveOQLDataTable(context, buildRequest(offset, PAGE_SIZE));
-			IDataTableSchema tableSchema = results.getSchema();
-			if (offset == 0 && exportHeaders) {
-				String[] headers = new String[tableSchema.getColumnCount()];
-				for (int i = 0; i < tableSchema.getColumnCount(); i++) {
-					headers[i] = tableSchema.getColumnSchema(i).getName();
+		try (OQLPager pager = new OQLPager(getContext(), oqlStatement, PAGE_SIZE, keyColumn)) {
+			boolean first = true;
+			IDataTable results;
+			while ((results = pager.next()) != null) {
+				IDataTableSchema tableSchema = results.getSchema();
+				if (first && exportHeaders) {
+					String[] headers = new String[tableSchema.getColumnCount()];
+					for (int i = 0; i < tableSchema.getColumnCount(); i++) {
+						headers[i] = tableSchema.getColumnSchema(i).getName();
+					}
+					writer.writeNext(headers);
 				}
-				writer.writeNext(headers);
-			}
-			
-			for (IDataRow row : results.getRows()) {
+				first = false;
+				
 				String[] values = new String[tableSchema.getColumnCount()];
-				for (int i = 0; i < tableSchema.getColumnCount(); i++) {
-					Object value = row.getValue(getContext(), i);
-					if (value == null) {
-						values[i] = "";
-					} else {
-						if (value instanceof Date) {
-							values[i] = Long.toString(((Date) value).getTime()); // use timestamp to export for more precision than just seconds.
-						} else if (value instanceof IMendixIdentifier) {
-							values[i] = Long.toString(((IMendixIdentifier) value).toLong());
-						} else {
-							values[i] = value.toString();
-						}
-						if (this.removeNewLinesFromValues) {
-							values[i] = values[i].replaceAll("\r", " ").replaceAll("\n", "");
-						}
+				for (IDataRow row : results.getRows()) {
+					for (int i = 0; i < tableSchema.getColumnCount(); i++) {
+						values[i] = OQL.toExportValue(row.getValue(getContext(), i), this.removeNewLinesFromValues);
 					}
+					writer.writeNext(values);
 				}
-				writer.writeNext(values);
 			}
-			
-			if (results.getRowCount() != PAGE_SIZE) {
-				break;
-			}
-			offset += PAGE_SIZE;
 		}
 		writer.close();
 		result.setValue(getContext(), FileDocument.MemberNames.Name.toString(), tmpFile.getName());
 		Core.storeFileDocumentContent(getContext(), result, new FileInputStream(tmpFile));
 		tmpFile.delete();
-		OQL.resetParameters();
 		
 		return result;
 		// END USER CODE
@@ -167,19 +148,5 @@ public class ExportOQLToCSV extends CustomJavaAction<IMendixObject>
 	}
 
 	// BEGIN EXTRA CODE
-	private IOQLTextGetRequest buildRequest(int offset, int pagesize) {
-		IOQLTextGetRequest request = Core.createOQLTextGetRequest();
-		request.setQuery(statement);
-		IParameterMap parameterMap = request.createParameterMap();
-		IRetrievalSchema schema = Core.createRetrievalSchema();
-		schema.setAmount(pagesize);
-		schema.setOffset(offset);
-		request.setRetrievalSchema(schema);
-		for (Entry<String, Object> entry : OQL.getNextParameters().entrySet()) {
-			parameterMap.put(entry.getKey(), entry.getValue());
-		}
-		request.setParameters(parameterMap);
-		return request;
-	}
 	// END EXTRA CODE
 }
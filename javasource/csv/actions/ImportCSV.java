@@ -141,6 +141,7 @@ public class ImportCSV extends CustomJavaAction<IMendixObject>
 			
 		} finally {
 			logger.debug("Closing CSV file..");
+			context.getData().remove(CSV.CONTEXT_READER_PLAN);
 			reader.close();
 		}
 		
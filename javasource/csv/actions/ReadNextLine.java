@@ -9,20 +9,10 @@
 
 package csv.actions;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import com.mendix.core.Core;
-import com.mendix.core.CoreException;
-import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.webui.CustomJavaAction;
-import com.opencsv.CSVReader;
 import csv.impl.CSV;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
-import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
-import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
 
 /**
  * Reads a next line from a CSV.
@@ -38,6 +28,8 @@ import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
  * All attributes should be of the type String; thus specific parsing should be part of the microflow.
  * 
  * This is implemented because declared primitives are returned in a different order than declared within the model.
+ * 
+ * To read many lines per call, use csv.impl.CSV.readNextLines from a Java action.
  */
 public class ReadNextLine extends CustomJavaAction<IMendixObject>
 {
@@ -56,41 +48,7 @@ public class ReadNextLine extends CustomJavaAction<IMendixObject>
 	public IMendixObject executeAction() throws Exception
 	{
 		// BEGIN USER CODE
-		ILogNode logger = CSV.getLogger();
-		Object contextObj = getContext().getData().get(CSV.CONTEXT_READER_OBJ);
-		if (contextObj == null || !(contextObj instanceof CSVReader)) {
-			throw new CoreException("Reader not found, this action should be invoked from a Import CSV microflow.");
-		}
-		
-		@SuppressWarnings("resource") // reader is closed by the ImportCSV action
-		CSVReader reader = (CSVReader) contextObj;
-
-		Collection<? extends IMetaPrimitive> attributes = Core.getMetaObject(this.entity).getMetaPrimitives();
-		List<String> attributeNames = new LinkedList<String>();
-		for (IMetaPrimitive attribute : attributes) {
-			String name = attribute.getName();
-			if (name.equalsIgnoreCase("createdBy") || name.equalsIgnoreCase("owner") ||
-				name.equalsIgnoreCase("createdDate") || name.equalsIgnoreCase("changedDate")) {
-				continue;
-			}
-			attributeNames.add(name);
-		}
-		
-		String line[] = reader.readNext();
-		if (line == null) {
-			logger.debug("End of file has been reached.");
-			return null;
-		}
-		
-		IMendixObject result = Core.instantiate(getContext(), this.entity);
-		int counter = 0;
-		for (String attributeName : attributeNames) {
-			if (counter >= line.length) break;
-			result.setValue(getContext(), attributeName, line[counter]);
-			counter++;
-		}
-		
-		return result;
+		return CSV.readNextLine(getContext(), this.entity);
 		// END USER CODE
 	}
 
@@ -9,16 +9,14 @@
 
 package csv.actions;
 
-import java.util.Arrays;
 import com.mendix.core.CoreException;
 import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
-import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
-import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
 import com.mendix.webui.CustomJavaAction;
 import com.opencsv.CSVWriter;
 import csv.impl.CSV;
+import csv.impl.ColumnPlan;
 
 /**
  * Writes a line from a CSV.
@@ -63,25 +61,7 @@ public class WriteNextLine extends CustomJavaAction<java.lang.Boolean>
 		
 		@SuppressWarnings("resource") // reader is closed by the ImportCSV action
 		CSVWriter writer = (CSVWriter) contextObj;
-		IMetaObject metaObject = line.getMetaObject();
-		String[] csvLine = new String[metaObject.getDeclaredMetaPrimitives().size()];
-		String[] attributes = new String[metaObject.getDeclaredMetaPrimitives().size()];
-		int offset = 0;
-		
-		for (IMetaPrimitive primitive : metaObject.getDeclaredMetaPrimitives()) {
-			attributes[offset] = primitive.getName();
-			offset++;
-		}
-		Arrays.sort(attributes);
-		
-		for (offset = 0; offset < attributes.length; offset++) {
-			Object value = line.getValue(getContext(), attributes[offset]);
-			if (value != null) {
-				csvLine[offset] = value.toString();
-			} else {
-				csvLine[offset] = null;
-			}
-		}
+		String[] csvLine = ColumnPlan.forWriter(getContext(), line.getMetaObject()).toLine(getContext(), line);
 		writer.writeNext(csvLine);
 		logger.trace("Written line to CSV.");
 		return true;
@@ -2,14 +2,22 @@ package csv.impl;
 
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.mendix.core.Core;
+import com.mendix.core.CoreException;
 import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.opencsv.CSVReader;
 
 public class CSV {
 	public static final String LOGNODE = "CSV";
 	public static final String CONTEXT_READER_OBJ = "CSVReader";
 	public static final String CONTEXT_WRITER_OBJ = "CSVWriter"; 
+	public static final String CONTEXT_READER_PLAN = "CSVReaderPlan";
+	public static final String CONTEXT_WRITER_PLAN = "CSVWriterPlan";
 	private static ILogNode logger;
 	
 	
@@ -35,4 +43,46 @@ public class CSV {
 		
 		return df;
 	}
+	
+	/**
+	 * Reads the next line of the reader of an ImportCSV microflow into a new object of the entity.
+	 * 
+	 * @return The object, or null if the end of the file has been reached
+	 */
+	public static IMendixObject readNextLine(IContext context, String entity) throws Exception {
+		String[] line = getReader(context).readNext();
+		if (line == null) {
+			getLogger().debug("End of file has been reached.");
+			return null;
+		}
+		return ColumnPlan.forReader(context, entity).toObject(context, line);
+	}
+	
+	/**
+	 * Reads at most <code>amount</code> lines of the reader of an ImportCSV microflow.
+	 * 
+	 * @return The objects, which is an empty list if the end of the file has been reached
+	 */
+	public static List<IMendixObject> readNextLines(IContext context, String entity, int amount) throws Exception {
+		@SuppressWarnings("resource") // reader is closed by the ImportCSV action
+		CSVReader reader = getReader(context);
+		ColumnPlan plan = ColumnPlan.forReader(context, entity);
+		List<IMendixObject> result = new ArrayList<>(Math.min(amount, 10000));
+		String[] line;
+		while (result.size() < amount && (line = reader.readNext()) != null) {
+			result.add(plan.toObject(context, line));
+		}
+		if (result.size() < amount) {
+			getLogger().debug("End of file has been reached.");
+		}
+		return result;
+	}
+	
+	private static CSVReader getReader(IContext context) throws CoreException {
+		Object contextObj = context.getData().get(CONTEXT_READER_OBJ);
+		if (contextObj == null || !(contextObj instanceof CSVReader)) {
+			throw new CoreException("Reader not found, this action should be invoked from a Import CSV microflow.");
+		}
+		return (CSVReader) contextObj;
+	}
 }
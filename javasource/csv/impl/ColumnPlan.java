@@ -0,0 +1,103 @@
+package csv.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+
+/**
+ * The attributes of an entity that ReadNextLine and WriteNextLine map to the columns of a line. The
+ * plan is determined once per reader or writer and kept in the context data next to it, so the
+ * metadata of the entity is not inspected for every line.
+ */
+public class ColumnPlan {
+	private final String entity;
+	private final String[] attributes;
+	private final String[] line;
+
+	private ColumnPlan(String entity, String[] attributes) {
+		this.entity = entity;
+		this.attributes = attributes;
+		this.line = new String[attributes.length];
+	}
+
+	/**
+	 * @return The plan to read lines into objects of the given entity: its attributes in the order
+	 * of the meta object, without the system members
+	 */
+	public static ColumnPlan forReader(IContext context, String entity) {
+		Object contextObj = context.getData().get(CSV.CONTEXT_READER_PLAN);
+		if (contextObj instanceof ColumnPlan && ((ColumnPlan) contextObj).entity.equals(entity)) {
+			return (ColumnPlan) contextObj;
+		}
+
+		List<String> attributeNames = new ArrayList<>();
+		for (IMetaPrimitive attribute : Core.getMetaObject(entity).getMetaPrimitives()) {
+			String name = attribute.getName();
+			if (name.equalsIgnoreCase("createdBy") || name.equalsIgnoreCase("owner") ||
+				name.equalsIgnoreCase("createdDate") || name.equalsIgnoreCase("changedDate")) {
+				continue;
+			}
+			attributeNames.add(name);
+		}
+
+		ColumnPlan plan = new ColumnPlan(entity, attributeNames.toArray(new String[0]));
+		context.getData().put(CSV.CONTEXT_READER_PLAN, plan);
+		return plan;
+	}
+
+	/**
+	 * @return The plan to write objects of the given entity as lines: its declared attributes in
+	 * alphabetical order
+	 */
+	public static ColumnPlan forWriter(IContext context, IMetaObject metaObject) {
+		Object contextObj = context.getData().get(CSV.CONTEXT_WRITER_PLAN);
+		if (contextObj instanceof ColumnPlan && ((ColumnPlan) contextObj).entity.equals(metaObject.getName())) {
+			return (ColumnPlan) contextObj;
+		}
+
+		String[] attributes = new String[metaObject.getDeclaredMetaPrimitives().size()];
+		int offset = 0;
+		for (IMetaPrimitive primitive : metaObject.getDeclaredMetaPrimitives()) {
+			attributes[offset] = primitive.getName();
+			offset++;
+		}
+		Arrays.sort(attributes);
+
+		ColumnPlan plan = new ColumnPlan(metaObject.getName(), attributes);
+		context.getData().put(CSV.CONTEXT_WRITER_PLAN, plan);
+		return plan;
+	}
+
+	public String getEntity() {
+		return entity;
+	}
+
+	/**
+	 * Creates an object of the entity and sets its attributes to the values of the line
+	 */
+	public IMendixObject toObject(IContext context, String[] values) {
+		IMendixObject result = Core.instantiate(context, entity);
+		int count = Math.min(attributes.length, values.length);
+		for (int i = 0; i < count; i++) {
+			result.setValue(context, attributes[i], values[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the attribute values of the object as a line. The same array is returned on every call,
+	 * so it should be written before the next call.
+	 */
+	public String[] toLine(IContext context, IMendixObject obj) {
+		for (int i = 0; i < attributes.length; i++) {
+			Object value = obj.getValue(context, attributes[i]);
+			line[i] = value != null ? value.toString() : null;
+		}
+		return line;
+	}
+}
@@ -0,0 +1,260 @@
+package csv.impl;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.DecimalFormat;
+import java.text.ParseException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+
+/**
+ * The mapping of the columns of a CSV file to the attributes of an entity, resolved once per file
+ * from the header line. It holds the insert statement, and a converter and binder per imported
+ * column, so importing a batch only has to convert and insert the values.
+ */
+public class ImportPlan {
+	private static final ILogNode logger = CSV.getLogger();
+
+	private interface Converter {
+		Object convert(String value) throws ParseException;
+	}
+
+	private interface Binder {
+		void bind(PreparedStatement statement, int parameter, Object value, Calendar utc) throws SQLException;
+	}
+
+	private interface TextFormatter {
+		String format(Object value);
+	}
+
+	private static final class Column {
+		final int index;
+		final Converter converter;
+		final Binder binder;
+		final TextFormatter formatter;
+
+		Column(int index, Converter converter, Binder binder, TextFormatter formatter) {
+			this.index = index;
+			this.converter = converter;
+			this.binder = binder;
+			this.formatter = formatter;
+		}
+	}
+
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+
+	private final String entity;
+	private final String table;
+	private final ThreadLocal<DecimalFormat> decimalFormat;
+	private final Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+	private Column[] columns;
+	private String columnList;
+	private String valuesTuple;
+
+	private ImportPlan(String entity, String table, DecimalFormat decimalFormat) {
+		this.entity = entity;
+		this.table = table;
+		this.decimalFormat = ThreadLocal.withInitial(() -> (DecimalFormat) decimalFormat.clone());
+	}
+
+	/**
+	 * Maps the headers to the attributes of the entity. Headers match an attribute case insensitively,
+	 * with spaces replaced by _. Headers that do not match a stored attribute are skipped, as are
+	 * headers that match an attribute that an earlier header already matched.
+	 */
+	public static ImportPlan compile(String[] headers, String entity, String decimalSeparator, String groupingSeparator) {
+		IMetaObject metaObject = Core.getMetaObject(entity);
+
+		Map<String, IMetaPrimitive> primitives = new HashMap<>();
+		for (IMetaPrimitive prim : metaObject.getMetaPrimitives()) {
+			primitives.put(prim.getName().toLowerCase(Locale.ROOT), prim);
+		}
+
+		ImportPlan plan = new ImportPlan(metaObject.getName(), Core.getDatabaseTableName(metaObject),
+			CSV.getDecimalFormat(decimalSeparator, groupingSeparator));
+		StringBuilder columnList = new StringBuilder(plan.table).append(" (id");
+		StringBuilder valuesTuple = new StringBuilder("(?");
+		List<Column> columns = new ArrayList<>(headers.length);
+		Set<String> mapped = new HashSet<>();
+
+		for (int i = 0; i < headers.length; i++) {
+			IMetaPrimitive primitive = primitives.get(headers[i].trim().replace(" ", "_").toLowerCase(Locale.ROOT));
+			if (primitive == null || primitive.isVirtual()) {
+				logger.warn("Attribute " + headers[i] + " was not found in " + entity + " and won't be imported.");
+				continue;
+			}
+			if (!mapped.add(primitive.getName())) {
+				logger.warn("Attribute " + primitive.getName() + " of " + entity + " appears more than once in the header, column " + (i + 1) + " (" + headers[i] + ") won't be imported.");
+				continue;
+			}
+
+			columns.add(plan.createColumn(i, primitive));
+			columnList.append(", ").append(Core.getDatabaseColumnName(primitive));
+			valuesTuple.append(", ?");
+		}
+
+		plan.columns = columns.toArray(new Column[0]);
+		plan.columnList = columnList.append(")").toString();
+		plan.valuesTuple = valuesTuple.append(")").toString();
+		return plan;
+	}
+
+	private Column createColumn(int index, IMetaPrimitive primitive) {
+		switch (primitive.getType()) {
+		case String:
+			return new Column(index, value -> value,
+				(statement, parameter, value, utc) -> statement.setString(parameter, (String) value), ImportPlan::quote);
+		case Integer:
+			return new Column(index, Integer::parseInt,
+				(statement, parameter, value, utc) -> statement.setInt(parameter, (Integer) value), String::valueOf);
+		case Long:
+		case Decimal:
+			return new Column(index, value -> (BigDecimal) decimalFormat.get().parse(value),
+				(statement, parameter, value, utc) -> statement.setBigDecimal(parameter, (BigDecimal) value),
+				value -> ((BigDecimal) value).toPlainString());
+		case Enum:
+			final Set<String> enumValues = primitive.getEnumeration().getEnumValues().keySet();
+			return new Column(index, value -> {
+				if (enumValues.contains(value)) {
+					return value;
+				}
+				throw new RuntimeException("Value " + value + " is not a valid value for this enumeration.");
+			}, (statement, parameter, value, utc) -> statement.setString(parameter, (String) value), ImportPlan::quote);
+		case DateTime:
+			return new Column(index, value -> new Timestamp(Long.parseLong(value)),
+				(statement, parameter, value, utc) -> statement.setTimestamp(parameter, (Timestamp) value, utc),
+				value -> TIMESTAMP_FORMAT.format(((Timestamp) value).toInstant()));
+		case Boolean:
+			return new Column(index, value -> value.equalsIgnoreCase("true") || value.equals("1"),
+				(statement, parameter, value, utc) -> statement.setBoolean(parameter, (Boolean) value), String::valueOf);
+		default:
+			return new Column(index, value -> {
+				throw new RuntimeException("Type "+ primitive.getType().toString() + " not supported.");
+			}, null, null);
+		}
+	}
+
+	public String getEntity() {
+		return entity;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public String getInsertQuery() {
+		return getInsertQuery(1);
+	}
+
+	/**
+	 * @return An insert statement with parameters for the given amount of rows
+	 */
+	public String getInsertQuery(int rows) {
+		StringBuilder res = new StringBuilder("INSERT INTO ").append(columnList).append(" VALUES ").append(valuesTuple);
+		for (int i = 1; i < rows; i++) {
+			res.append(", ").append(valuesTuple);
+		}
+		return res.toString();
+	}
+
+	/**
+	 * @return A PostgreSQL COPY statement that reads rows in CSV format, as written by
+	 * {@link #appendCsv}
+	 */
+	public String getCopyStatement() {
+		return "COPY " + columnList + " FROM STDIN WITH (FORMAT csv)";
+	}
+
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * @return The amount of statement parameters per row, including the id
+	 */
+	public int getParameterCount() {
+		return columns.length + 1;
+	}
+
+	/**
+	 * Converts the values of the imported columns of a line. Empty values are converted to null. This
+	 * method can be called from multiple threads.
+	 */
+	public Object[] convert(String[] line) throws ParseException {
+		Object[] row = new Object[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			Column column = columns[i];
+			if (column.index >= line.length || line[column.index] == null || line[column.index].isEmpty()) {
+				continue;
+			}
+			row[i] = column.converter.convert(line[column.index]);
+		}
+		return row;
+	}
+
+	/**
+	 * Sets the id and the values of a converted row as the parameters of the insert statement
+	 */
+	public void bind(PreparedStatement insertStatement, long id, Object[] row) throws SQLException {
+		bind(insertStatement, 1, id, row);
+	}
+
+	/**
+	 * Same as {@link #bind(PreparedStatement, long, Object[])}, starting at the given parameter, for
+	 * statements that insert multiple rows
+	 */
+	public void bind(PreparedStatement insertStatement, int firstParameter, long id, Object[] row) throws SQLException {
+		insertStatement.setLong(firstParameter, id);
+		for (int i = 0; i < columns.length; i++) {
+			if (row[i] == null) {
+				insertStatement.setNull(firstParameter + i + 1, Types.NULL);
+			} else {
+				columns[i].binder.bind(insertStatement, firstParameter + i + 1, row[i], utc);
+			}
+		}
+	}
+
+	/**
+	 * Appends the id and the values of a converted row as a CSV line. Null values are written as an
+	 * unquoted empty value and strings are always quoted, so the two can be told apart.
+	 */
+	public void appendCsv(StringBuilder out, long id, Object[] row) {
+		out.append(id);
+		for (int i = 0; i < columns.length; i++) {
+			out.append(',');
+			if (row[i] != null) {
+				out.append(columns[i].formatter.format(row[i]));
+			}
+		}
+		out.append('\n');
+	}
+
+	private static String quote(Object value) {
+		String text = (String) value;
+		StringBuilder res = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"') {
+				res.append('"');
+			}
+			res.append(c);
+		}
+		return res.append('"').toString();
+	}
+}
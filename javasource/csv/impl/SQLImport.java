@@ -0,0 +1,551 @@
+package csv.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import com.mendix.core.Core;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.opencsv.CSVReader;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Imports the lines of a CSV file into the table of an entity using SQL batches, as used by
+ * ImportCSVUsingSQL.
+ *
+ * The import runs as a pipeline: a reader thread reads batches of lines, a pool of workers converts
+ * the values of these batches, and the thread that owns the connection inserts the converted
+ * batches in file order using a single prepared statement. The queue between the stages is bounded,
+ * so the memory use does not depend on the size of the file.
+ *
+ * The column mapping is compiled once per file into an {@link ImportPlan}, and object ids are
+ * reserved in large blocks, so a batch costs little more than the insert itself.
+ *
+ * Instead of JDBC batches, rows can be loaded with multi-row inserts or, on PostgreSQL, with the
+ * COPY command of the driver. See {@link LoadMode}.
+ */
+public class SQLImport {
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	public static final int DEFAULT_ID_BLOCK_SIZE = 100000;
+
+	/**
+	 * How the converted rows are written to the database
+	 */
+	public enum LoadMode {
+		/**
+		 * A single row insert statement, executed as a JDBC batch. Supported on all databases.
+		 */
+		BATCH,
+		/**
+		 * Insert statements with many rows each. Falls back to BATCH on Oracle, which does not support
+		 * them.
+		 */
+		MULTI_ROW,
+		/**
+		 * Streams all rows through the COPY API of the PostgreSQL driver. Falls back to MULTI_ROW if the
+		 * connection does not expose the COPY API, and to BATCH on other databases.
+		 */
+		COPY
+	}
+
+	private static final ILogNode logger = CSV.getLogger();
+	private static final Future<List<Object[]>> END = CompletableFuture.completedFuture(null);
+	private static final AtomicBoolean copyFallbackLogged = new AtomicBoolean();
+
+	private static volatile int defaultBatchSize = DEFAULT_BATCH_SIZE;
+	private static volatile int defaultParallelism = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+	private static volatile int defaultIdBlockSize = DEFAULT_ID_BLOCK_SIZE;
+	private static volatile LoadMode defaultLoadMode = LoadMode.BATCH;
+
+	private static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		private final AtomicInteger threadnr = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread t = defaultFactory.newThread(runnable);
+			t.setDaemon(true);
+			t.setName("CSV import thread " + threadnr.incrementAndGet());
+			return t;
+		}
+	});
+
+	private final CSVReader reader;
+	private final String entity;
+	private final String decimalSeparator;
+	private final String groupingSeparator;
+	private final int batchSize;
+	private final int parallelism;
+	private final int idBlockSize;
+	private LoadMode loadMode = defaultLoadMode;
+
+	private volatile boolean aborted = false;
+	private volatile long imported = 0;
+	private volatile long startNanos = 0;
+
+	public SQLImport(CSVReader reader, String entity, String decimalSeparator, String groupingSeparator) {
+		this(reader, entity, decimalSeparator, groupingSeparator, defaultBatchSize, defaultParallelism, defaultIdBlockSize);
+	}
+
+	/**
+	 * @param batchSize The amount of lines inserted per SQL batch
+	 * @param parallelism The amount of batches that are converted at the same time
+	 * @param idBlockSize The amount of object ids that are reserved at once
+	 */
+	public SQLImport(CSVReader reader, String entity, String decimalSeparator, String groupingSeparator, int batchSize, int parallelism, int idBlockSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size should be larger than zero");
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be larger than zero");
+		}
+		if (idBlockSize < 1) {
+			throw new IllegalArgumentException("Id block size should be larger than zero");
+		}
+		this.reader = reader;
+		this.entity = entity;
+		this.decimalSeparator = decimalSeparator;
+		this.groupingSeparator = groupingSeparator;
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
+		this.idBlockSize = idBlockSize;
+	}
+
+	/**
+	 * Sets the batch size and parallelism used by ImportCSVUsingSQL, for example from an after
+	 * startup microflow.
+	 */
+	public static void setDefaults(int batchSize, int parallelism) {
+		setDefaults(batchSize, parallelism, defaultIdBlockSize);
+	}
+
+	public static void setDefaults(int batchSize, int parallelism, int idBlockSize) {
+		if (batchSize < 1 || parallelism < 1 || idBlockSize < 1) {
+			throw new IllegalArgumentException("Batch size, parallelism and id block size should be larger than zero");
+		}
+		defaultBatchSize = batchSize;
+		defaultParallelism = parallelism;
+		defaultIdBlockSize = idBlockSize;
+	}
+
+	public static int getDefaultBatchSize() {
+		return defaultBatchSize;
+	}
+
+	public static int getDefaultParallelism() {
+		return defaultParallelism;
+	}
+
+	public static int getDefaultIdBlockSize() {
+		return defaultIdBlockSize;
+	}
+
+	/**
+	 * Sets the load mode used by ImportCSVUsingSQL
+	 */
+	public static void setDefaultLoadMode(LoadMode loadMode) {
+		defaultLoadMode = loadMode;
+	}
+
+	public static LoadMode getDefaultLoadMode() {
+		return defaultLoadMode;
+	}
+
+	public void setLoadMode(LoadMode loadMode) {
+		this.loadMode = loadMode;
+	}
+
+	public LoadMode getLoadMode() {
+		return loadMode;
+	}
+
+	public long getImportedCount() {
+		return imported;
+	}
+
+	public double getRowsPerSecond() {
+		long elapsed = System.nanoTime() - startNanos;
+		return startNanos == 0 || elapsed == 0 ? 0 : imported * 1e9 / elapsed;
+	}
+
+	/**
+	 * Reads the header and all lines of the reader and inserts them using the given connection.
+	 *
+	 * @return The amount of imported lines
+	 */
+	public long run(Connection connection) throws Exception {
+		startNanos = System.nanoTime();
+
+		String[] attributes = reader.readNext();
+		if (attributes == null) {
+			return 0;
+		}
+
+		final ImportPlan plan = ImportPlan.compile(attributes, entity, decimalSeparator, groupingSeparator);
+		final IdBlock ids = new IdBlock(plan.getEntity(), idBlockSize);
+
+		logger.debug("Insert query: " + plan.getInsertQuery());
+
+		final BlockingQueue<Future<List<Object[]>>> batches = new ArrayBlockingQueue<>(parallelism * 2);
+		final CountDownLatch readerDone = new CountDownLatch(1);
+		POOL.execute(() -> {
+			try {
+				readBatches(plan, batches);
+			} finally {
+				readerDone.countDown();
+			}
+		});
+
+		try (Loader loader = createLoader(connection, plan, ids)) {
+			Future<List<Object[]>> batch;
+			while ((batch = batches.take()) != END) {
+				List<Object[]> rows = getBatch(batch);
+				loader.load(rows);
+				imported += rows.size();
+				logger.info(String.format("Import progress: %d (%.0f rows/s)", imported, getRowsPerSecond()));
+			}
+			loader.finish();
+		} finally {
+			aborted = true;
+			batches.clear();
+			readerDone.await();
+		}
+
+		return imported;
+	}
+
+	/**
+	 * Determines the load mode that can be used on this connection and creates its loader
+	 */
+	private Loader createLoader(Connection connection, ImportPlan plan, IdBlock ids) throws SQLException {
+		String database = connection.getMetaData().getDatabaseProductName();
+		LoadMode mode = loadMode;
+
+		if (mode == LoadMode.COPY) {
+			if (!database.toLowerCase(Locale.ROOT).contains("postgresql")) {
+				logCopyFallback("COPY is only supported on PostgreSQL, using batch inserts on " + database);
+				mode = LoadMode.BATCH;
+			} else {
+				try {
+					return new CopyLoader(connection.unwrap(PGConnection.class), plan, ids);
+				} catch (SQLException | LinkageError e) {
+					// also when the driver is loaded by another class loader than the PGConnection we know
+					logCopyFallback("COPY is not available on this connection, using multi-row inserts: " + e.getMessage());
+					mode = LoadMode.MULTI_ROW;
+				}
+			}
+		}
+		if (mode == LoadMode.MULTI_ROW && database.toLowerCase(Locale.ROOT).contains("oracle")) {
+			logger.info("Multi-row inserts are not supported on " + database + ", using batch inserts");
+			mode = LoadMode.BATCH;
+		}
+
+		logger.debug("Loading rows into " + plan.getTable() + " using " + mode);
+		if (mode == LoadMode.MULTI_ROW) {
+			// SQL Server allows at most 2100 parameters per statement
+			int maxParameters = database.toLowerCase(Locale.ROOT).contains("microsoft") ? 2000 : 30000;
+			return new MultiRowLoader(connection, plan, ids, Math.max(1, Math.min(1000, maxParameters / plan.getParameterCount())));
+		}
+		return new BatchLoader(connection, plan, ids);
+	}
+
+	/**
+	 * Logs that COPY was requested but cannot be used, as a warning the first time only
+	 */
+	private static void logCopyFallback(String message) {
+		if (copyFallbackLogged.compareAndSet(false, true)) {
+			logger.warn(message);
+		} else {
+			logger.debug(message);
+		}
+	}
+
+	private interface Loader extends AutoCloseable {
+		void load(List<Object[]> rows) throws SQLException;
+
+		void finish() throws SQLException;
+
+		@Override
+		void close() throws SQLException;
+	}
+
+	private static final class BatchLoader implements Loader {
+		private final ImportPlan plan;
+		private final IdBlock ids;
+		private final PreparedStatement insertStatement;
+
+		BatchLoader(Connection connection, ImportPlan plan, IdBlock ids) throws SQLException {
+			this.plan = plan;
+			this.ids = ids;
+			this.insertStatement = connection.prepareStatement(plan.getInsertQuery());
+		}
+
+		@Override
+		public void load(List<Object[]> rows) throws SQLException {
+			for (Object[] row : rows) {
+				plan.bind(insertStatement, ids.next(), row);
+				insertStatement.addBatch();
+			}
+			insertStatement.executeBatch();
+		}
+
+		@Override
+		public void finish() {
+		}
+
+		@Override
+		public void close() throws SQLException {
+			insertStatement.close();
+		}
+	}
+
+	private static final class MultiRowLoader implements Loader {
+		private final Connection connection;
+		private final ImportPlan plan;
+		private final IdBlock ids;
+		private final int rowsPerStatement;
+		private final PreparedStatement insertStatement;
+
+		MultiRowLoader(Connection connection, ImportPlan plan, IdBlock ids, int rowsPerStatement) throws SQLException {
+			this.connection = connection;
+			this.plan = plan;
+			this.ids = ids;
+			this.rowsPerStatement = rowsPerStatement;
+			this.insertStatement = connection.prepareStatement(plan.getInsertQuery(rowsPerStatement));
+		}
+
+		@Override
+		public void load(List<Object[]> rows) throws SQLException {
+			int full = rows.size() - rows.size() % rowsPerStatement;
+			for (int start = 0; start < full; start += rowsPerStatement) {
+				bind(insertStatement, rows.subList(start, start + rowsPerStatement));
+				insertStatement.addBatch();
+			}
+			if (full > 0) {
+				insertStatement.executeBatch();
+			}
+			if (full < rows.size()) {
+				try (PreparedStatement tailStatement = connection.prepareStatement(plan.getInsertQuery(rows.size() - full))) {
+					bind(tailStatement, rows.subList(full, rows.size()));
+					tailStatement.executeUpdate();
+				}
+			}
+		}
+
+		private void bind(PreparedStatement statement, List<Object[]> rows) throws SQLException {
+			int parameter = 1;
+			for (Object[] row : rows) {
+				plan.bind(statement, parameter, ids.next(), row);
+				parameter += plan.getParameterCount();
+			}
+		}
+
+		@Override
+		public void finish() {
+		}
+
+		@Override
+		public void close() throws SQLException {
+			insertStatement.close();
+		}
+	}
+
+	/**
+	 * Streams all rows of the import through a single COPY command
+	 */
+	private static final class CopyLoader implements Loader {
+		private final ImportPlan plan;
+		private final IdBlock ids;
+		private final CopyIn copyIn;
+
+		CopyLoader(PGConnection connection, ImportPlan plan, IdBlock ids) throws SQLException {
+			this.plan = plan;
+			this.ids = ids;
+			this.copyIn = connection.getCopyAPI().copyIn(plan.getCopyStatement());
+		}
+
+		@Override
+		public void load(List<Object[]> rows) throws SQLException {
+			StringBuilder data = new StringBuilder(rows.size() * 64);
+			for (Object[] row : rows) {
+				plan.appendCsv(data, ids.next(), row);
+			}
+			byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+			copyIn.writeToCopy(bytes, 0, bytes.length);
+		}
+
+		@Override
+		public void finish() throws SQLException {
+			long copied = copyIn.endCopy();
+			logger.debug("Copied " + copied + " rows into " + plan.getTable());
+		}
+
+		@Override
+		public void close() throws SQLException {
+			if (copyIn.isActive()) {
+				copyIn.cancelCopy();
+			}
+		}
+	}
+
+	private void readBatches(ImportPlan plan, BlockingQueue<Future<List<Object[]>>> batches) {
+		final Semaphore converting = new Semaphore(parallelism);
+		try {
+			String[] line;
+			List<String[]> buffer = new ArrayList<>(batchSize);
+			while (!aborted && (line = reader.readNext()) != null) {
+				buffer.add(line);
+				if (buffer.size() >= batchSize) {
+					enqueue(batches, convertAsync(plan, buffer, converting));
+					buffer = new ArrayList<>(batchSize);
+				}
+			}
+			if (!buffer.isEmpty()) {
+				enqueue(batches, convertAsync(plan, buffer, converting));
+			}
+			enqueue(batches, END);
+		} catch (Throwable e) {
+			// also report errors, such as running out of memory, or the importing thread waits forever
+			if (!aborted) {
+				try {
+					enqueue(batches, CompletableFuture.<List<Object[]>>failedFuture(e));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private Future<List<Object[]>> convertAsync(ImportPlan plan, List<String[]> lines, Semaphore converting) throws InterruptedException {
+		converting.acquire();
+		return CompletableFuture
+			.supplyAsync(() -> convert(plan, lines), POOL)
+			.whenComplete((rows, error) -> converting.release());
+	}
+
+	/**
+	 * Puts the batch in the queue, unless the import has been aborted
+	 */
+	private void enqueue(BlockingQueue<Future<List<Object[]>>> batches, Future<List<Object[]>> batch) throws InterruptedException {
+		while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+			if (aborted) {
+				return;
+			}
+		}
+	}
+
+	private static List<Object[]> getBatch(Future<List<Object[]>> batch) throws Exception {
+		try {
+			return batch.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static List<Object[]> convert(ImportPlan plan, List<String[]> lines) {
+		List<Object[]> rows = new ArrayList<>(lines.size());
+		try {
+			for (String[] line : lines) {
+				rows.add(plan.convert(line));
+			}
+		} catch (ParseException e) {
+			throw new RuntimeException(e);
+		}
+		return rows;
+	}
+
+	/**
+	 * Hands out object ids from blocks that are reserved in the entity identifier table, so the table
+	 * is only locked and updated once per block instead of once per batch. Ids that are left in the
+	 * last block are not used.
+	 */
+	private static final class IdBlock {
+		private final String entity;
+		private final int size;
+		private long next = 0;
+		private long remaining = 0;
+
+		IdBlock(String entity, int size) {
+			this.entity = entity;
+			this.size = size;
+		}
+
+		long next() {
+			if (remaining == 0) {
+				next = getNextIDForBatch(entity, size);
+				remaining = size;
+				logger.debug("Reserved " + size + " ids for " + entity);
+			}
+			remaining--;
+			return next++;
+		}
+	}
+
+	private static Long getNextIDForBatch(String entity, int size) {
+		IContext context = Core.createSystemContext();
+		Long id = Core.dataStorage().executeWithConnection(context, executeGetNextIDForBatch(entity, size));
+		context.endTransaction();
+		return id;
+	}
+
+	private static Function<Connection, Long> executeGetNextIDForBatch(String entity, int size) {
+		return connection -> {
+			final String getSequenceQuery = "SELECT id, object_sequence FROM mendixsystem$entityidentifier WHERE " +
+						"id = (SELECT id FROM mendixsystem$entity WHERE entity_name = ?) FOR UPDATE";
+			final String setSequenceQuery = "UPDATE mendixsystem$entityidentifier SET object_sequence = ? WHERE id = ?";
+
+			try {
+				Long start =  ((long) Core.getMetaObject(entity).getId()) << 48;
+
+				PreparedStatement getStat = connection.prepareStatement(getSequenceQuery);
+				getStat.setString(1, entity);
+				ResultSet getRes = getStat.executeQuery();
+				getRes.next();
+				String id = getRes.getString(1);
+				Long result = getRes.getLong(2);
+				getStat.close();
+				getRes.close();
+
+				PreparedStatement setStat = connection.prepareStatement(setSequenceQuery);
+				setStat.setLong(1, result + size);
+				setStat.setString(2, id);
+				setStat.executeUpdate();
+				setStat.close();
+
+				connection.close();
+
+				return result + start;
+
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		};
+	}
+}
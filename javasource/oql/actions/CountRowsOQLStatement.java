@@ -10,13 +10,13 @@
 package oql.actions;
 
 import java.util.List;
-import java.util.Map;
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.webui.CustomJavaAction;
 import oql.implementation.OQL;
+import oql.implementation.OQLStatement;
 
 /**
  * This action executes the OQL statement and returns the amount of rows which will be returned by the OQL statement.
@@ -49,12 +49,10 @@ public class CountRowsOQLStatement extends CustomJavaAction<java.lang.Long>
 		ILogNode logger = Core.getLogger(this.getClass().getSimpleName());
 		
 		logger.debug("Mapping parameters.");
-		Map<String, Object> parameters = OQL.getNextParameters();
-		Long result = 
-				OQL.countRowsOQL(context, statement, amount, parameters);	
-		
+		OQLStatement oqlStatement = new OQLStatement(statement, OQL.getNextParameters());
 		OQL.resetParameters();
-		return result;
+		
+		return OQL.countRowsOQL(context, oqlStatement, amount);
 		// END USER CODE
 	}
 
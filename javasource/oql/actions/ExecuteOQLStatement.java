@@ -28,6 +28,7 @@ import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.meta.IMetaAssociation;
 import com.mendix.webui.CustomJavaAction;
 import oql.implementation.OQL;
+import oql.implementation.OQLStatement;
 
 /**
  * This action executes a given OQL statement and accepts parameters.
@@ -101,14 +102,11 @@ public class ExecuteOQLStatement extends CustomJavaAction<java.util.List<IMendix
 		ILogNode logger = Core.getLogger(this.getClass().getSimpleName());
 		
 		logger.debug("Mapping parameters.");
-		Map<String, Object> parameters = OQL.getNextParameters();
-		List<IMendixObject> result = 
-				OQL.executeOQL(context, statement, returnEntity, amount, offset, parameters);	
-		
+		OQLStatement oqlStatement = new OQLStatement(statement, OQL.getNextParameters());
 		if (!this.preserveParameters) 
 			OQL.resetParameters();
 		
-		return result;
+		return OQL.executeOQL(context, oqlStatement, returnEntity, amount, offset);
 		// END USER CODE
 	}
 
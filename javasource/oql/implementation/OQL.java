@@ -1,35 +1,37 @@
 package oql.implementation;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.mendix.core.Core;
 import com.mendix.core.CoreException;
 import com.mendix.logging.ILogNode;
-import com.mendix.systemwideinterfaces.connectionbus.data.IDataColumnSchema;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataRow;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataTable;
-import com.mendix.systemwideinterfaces.connectionbus.data.IDataTableSchema;
-import com.mendix.systemwideinterfaces.connectionbus.requests.IParameterMap;
-import com.mendix.systemwideinterfaces.connectionbus.requests.IRetrievalSchema;
 import com.mendix.systemwideinterfaces.connectionbus.requests.types.IOQLTextGetRequest;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
-import com.mendix.systemwideinterfaces.core.meta.IMetaAssociation;
-import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
-import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
-import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
 
 public class OQL {
 	static ThreadLocal<Map<String, Object>> nextParameters = new ThreadLocal<Map<String, Object>>();
+	static ThreadLocal<String> nextKeyColumn = new ThreadLocal<String>();
 	
 	private static ILogNode logger = Core.getLogger(OQL.class.getSimpleName());
 	
+	/**
+	 * Counts with an amount up to this limit retrieve the rows instead of counting in the database
+	 */
+	private static final long COUNT_BY_RETRIEVE_LIMIT = 1000;
+	private static final int MAX_CACHED_COUNTS = 1000;
+	private static final Map<String, CachedCount> countCache = new ConcurrentHashMap<String, CachedCount>();
+	private static volatile long countCacheDuration = 0;
+	
 	public static Map<String, Object> getNextParameters() {
 		if (nextParameters.get() == null) {
 			nextParameters.set(new HashMap<String, Object>());
@@ -37,128 +39,187 @@ public class OQL {
 		return nextParameters.get();
 	}
 	
+	/**
+	 * Removes the parameters and key column set for the next statement of this thread. Actions that
+	 * use them take them into an {@link OQLStatement} first and reset them before executing, so they
+	 * never leak into the next request handled by the same thread, also not if the statement fails.
+	 */
 	public static void resetParameters() {
-		nextParameters.set(new HashMap<String, Object>());;
+		nextParameters.remove();
+		nextKeyColumn.remove();
+	}
+	
+	/**
+	 * Sets the result column that the next ExportOQLToCSV pages on, see {@link OQLPager}. Like the
+	 * parameters, it is reset by the export. Without it, the export pages on the ID column of the
+	 * result, if the statement allows it.
+	 */
+	public static void setNextKeyColumn(String column) {
+		nextKeyColumn.set(column);
+	}
+	
+	public static String getNextKeyColumn() {
+		return nextKeyColumn.get();
+	}
+	
+	/**
+	 * Formats a value of an OQL result for a CSV export. Dates are exported as timestamp, for more
+	 * precision than just seconds, and references as their id.
+	 */
+	public static String toExportValue(Object value, boolean removeNewLines) {
+		String result;
+		if (value == null) {
+			return "";
+		} else if (value instanceof Date) {
+			result = Long.toString(((Date) value).getTime());
+		} else if (value instanceof IMendixIdentifier) {
+			result = Long.toString(((IMendixIdentifier) value).toLong());
+		} else {
+			result = value.toString();
+		}
+		return removeNewLines ? removeNewLines(result) : result;
+	}
+	
+	/**
+	 * Replaces carriage returns by a space and removes line feeds
+	 */
+	public static String removeNewLines(String value) {
+		int i = 0;
+		while (i < value.length() && value.charAt(i) != '\r' && value.charAt(i) != '\n') {
+			i++;
+		}
+		if (i == value.length()) {
+			return value;
+		}
+		
+		StringBuilder result = new StringBuilder(value.length());
+		result.append(value, 0, i);
+		for (; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\r') {
+				result.append(' ');
+			} else if (c != '\n') {
+				result.append(c);
+			}
+		}
+		return result.toString();
 	}
 	
 	public static void addParameter(String name, Object value) {
 		getNextParameters().put(name, value);
 	}
 	
+	/**
+	 * Counts the rows returned by the statement, at most <code>amount</code> if it is larger than zero.
+	 * 
+	 * Small amounts, as used to check whether a row exists, are counted by retrieving at most that
+	 * many rows. Otherwise the statement, without its ORDER BY, is wrapped in a COUNT(*) subquery,
+	 * limited to the amount, so the database does the counting and stops at the amount. Statements
+	 * that cannot be wrapped, because they have a LIMIT or OFFSET of their own, are counted by
+	 * retrieving their rows. This is decided before executing anything, because a failed query
+	 * aborts the transaction of the context on some databases.
+	 * 
+	 * If a cache duration is set with {@link #setCountCacheDuration}, the result is reused for the
+	 * same statement, amount and parameters during that time.
+	 */
 	public static Long countRowsOQL(IContext context, String statement, Long amount, Map<String, Object> parameters)
 		throws CoreException {
-		IOQLTextGetRequest request = Core.createOQLTextGetRequest();
-		request.setQuery(statement);
-		IParameterMap parameterMap = request.createParameterMap();
-		for (Entry<String, Object> entry : OQL.getNextParameters().entrySet()) {
-			parameterMap.put(entry.getKey(), entry.getValue());
+		return countRowsOQL(context, new OQLStatement(statement, parameters), amount);
+	}
+	
+	/**
+	 * Same as {@link #countRowsOQL(IContext, String, Long, Map)}, with the parameters bound to the
+	 * statement. Data sets are always counted by retrieving their rows.
+	 */
+	public static Long countRowsOQL(IContext context, OQLStatement statement, Long amount) throws CoreException {
+		long limit = amount != null && amount > 0 ? amount : 0;
+		String cacheKey = null;
+		if (countCacheDuration > 0) {
+			cacheKey = statement.getStatement() + "\n" + limit + "\n" + new TreeMap<String, Object>(statement.getParameters());
+			CachedCount cached = countCache.get(cacheKey);
+			if (cached != null && cached.expires > System.currentTimeMillis()) {
+				logger.debug("Using cached count");
+				return cached.count;
+			}
 		}
-		request.setParameters(parameterMap);
 		
-		IRetrievalSchema schema = Core.createRetrievalSchema();
-		schema.setAmount(amount);
-		request.setRetrievalSchema(schema);
-
+		long result;
+		if ((limit > 0 && limit <= COUNT_BY_RETRIEVE_LIMIT) || statement.isDataSet() || statement.isLimited()) {
+			result = retrieveAndCount(context, statement, limit);
+		} else {
+			// limit the subquery, so the database stops counting at the amount
+			IOQLTextGetRequest request = statement.createRequest("SELECT COUNT(*) AS RowCount FROM (" + statement.getUnorderedStatement() +
+				(limit > 0 ? " LIMIT " + limit : "") + ") AS CountedRows");
+			logger.debug("Executing count query");
+			IDataTable results = Core.retrieveOQLDataTable(context, request);
+			result = ((Number) results.getRows().get(0).getValue(context, 0)).longValue();
+		}
+		
+		if (cacheKey != null) {
+			if (countCache.size() >= MAX_CACHED_COUNTS) {
+				long now = System.currentTimeMillis();
+				countCache.values().removeIf(cached -> cached.expires <= now);
+				if (countCache.size() >= MAX_CACHED_COUNTS) {
+					countCache.clear();
+				}
+			}
+			countCache.put(cacheKey, new CachedCount(result, System.currentTimeMillis() + countCacheDuration));
+		}
+		return result;
+	}
+	
+	/**
+	 * Sets how long the results of countRowsOQL are reused, for example for dashboards that poll the
+	 * same count. The cache is shared by all users, so only enable it for counts that every user may
+	 * see. 0 (the default) disables the cache.
+	 */
+	public static void setCountCacheDuration(long milliseconds) {
+		countCacheDuration = milliseconds;
+		if (milliseconds <= 0) {
+			countCache.clear();
+		}
+	}
+	
+	public static void clearCountCache() {
+		countCache.clear();
+	}
+	
+	private static long retrieveAndCount(IContext context, OQLStatement statement, long amount) throws CoreException {
+		IOQLTextGetRequest request = statement.createRequest(amount, 0L);
 		logger.debug("Executing query");
 		IDataTable results = Core.retrieveOQLDataTable(context, request);
 		return (long) results.getRowCount();
 	}
 	
-	public static List<IMendixObject> executeOQL(IContext context, String statement, String returnEntity, 
-			Long amount, Long offset, Map<String, Object> parameters) throws CoreException {
-		IOQLTextGetRequest request;
-		try {
-			request = Core.createOQLTextGetRequestFromDataSet(statement); 
-		} catch (IllegalArgumentException e) {
-			request = Core.createOQLTextGetRequest();
-			request.setQuery(statement);
-		}
+	private static final class CachedCount {
+		final long count;
+		final long expires;
 		
-		IParameterMap parameterMap = request.createParameterMap();
-		for (Entry<String, Object> entry : OQL.getNextParameters().entrySet()) {
-			parameterMap.put(entry.getKey(), entry.getValue());
+		CachedCount(long count, long expires) {
+			this.count = count;
+			this.expires = expires;
 		}
-		request.setParameters(parameterMap);
-		
-		IRetrievalSchema schema = Core.createRetrievalSchema();
-		schema.setOffset(offset != null ? offset : 0);
-		schema.setAmount(amount != null ? amount : 0);
-		request.setRetrievalSchema(schema);
+	}
+	
+	public static List<IMendixObject> executeOQL(IContext context, String statement, String returnEntity, 
+			Long amount, Long offset, Map<String, Object> parameters) throws CoreException {
+		return executeOQL(context, new OQLStatement(statement, parameters), returnEntity, amount, offset);
+	}
+	
+	public static List<IMendixObject> executeOQL(IContext context, OQLStatement statement, String returnEntity, 
+			Long amount, Long offset) throws CoreException {
+		IOQLTextGetRequest request = statement.createRequest(amount, offset);
 		
-		List<IMendixObject> result = new LinkedList<IMendixObject>();
-		logger.debug("Executing query\n:" + statement);
+		logger.debug("Executing query\n:" + statement.getStatement());
 		IDataTable results = Core.retrieveOQLDataTable(context, request);
 		logger.debug("Mapping " + results.getRowCount() + " results.");
-		IDataTableSchema tableSchema = results.getSchema();
+		ResultMapping mapping = ResultMapping.get(statement.getStatement(), returnEntity, results.getSchema());
+		List<IMendixObject> result = new ArrayList<IMendixObject>(results.getRowCount());
 		for (IDataRow row : results.getRows()) {
-			IMendixObject targetObj = Core.instantiate(context, returnEntity);
-			for (int i = 0; i < tableSchema.getColumnCount(); i++) {
-				IDataColumnSchema columnSchema = tableSchema.getColumnSchema(i);
-				logger.trace("Mapping column "+ columnSchema.getName());
-				Object value = row.getValue(context, i);
-				IMetaObject targetMeta = targetObj.getMetaObject();
-				
-				if (value == null) {
-					IMetaPrimitive primitive = targetMeta.getMetaPrimitive(columnSchema.getName());
-					if (primitive != null) {
-						targetObj.setValue(context, columnSchema.getName(), null);
-					} else {
-						if (getAssociation(targetObj, columnSchema) == null) {
-							throw new NullPointerException("Null value found " + columnSchema.getName() + 
-									" was not found as association or attribute.");
-						}
-					} 
-					
-				} else {
-					
-					if (value instanceof IMendixIdentifier) {
-						logger.trace("Treating as association");				
-						IMetaAssociation association = getAssociation(targetObj, columnSchema);
-						if (association != null) {
-							targetObj.setValue(context, association.getName(), value);
-						} else {
-							throw new NullPointerException("Could not find result association " + columnSchema.getName() + " in target object.");
-						}
-					} else {
-						logger.trace("Treating as value");
-						IMetaPrimitive primitive = targetMeta.getMetaPrimitive(columnSchema.getName());
-						
-						if (primitive == null) {
-							throw new NullPointerException("Could not find result attribute " + columnSchema.getName() + " in target object.");
-						}
-						
-						if (value instanceof Integer && primitive.getType() == PrimitiveType.Long) {
-							value = (Long) ((Integer) value).longValue();
-						} else if (value instanceof Long && primitive.getType() == PrimitiveType.Integer) {
-							value = Integer.parseInt(((Long) value).toString()); // not so happy way of conversion
-						} else if (value instanceof Double && primitive.getType() == PrimitiveType.Decimal) {
-							value = new BigDecimal((Double) value);
-						}
-						targetObj.setValue(context, columnSchema.getName(), value);
-					}
-				}
-				
-			}
-			result.add(targetObj);
+			result.add(mapping.map(context, row));
 		}
 		
 		return result;
 	}
-
-	private static IMetaAssociation getAssociation(IMendixObject targetObj, IDataColumnSchema columnSchema) {
-		/* Escaping an alias as described at https://docs.mendix.com/refguide7/oql-select-clause
-		 * leads to an error when using dots e.g. (OQL.ExamplePerson_ExamplePersonResult).
-		 * Therefore this action accepts the ExamplePerson_ExamplePersonResult part and searches for the
-		 * association that has this in it.
-		 */
-		for (IMetaAssociation association : targetObj.getMetaObject().getDeclaredMetaAssociationsParent()) {
-			String name = association.getName();
-			name = name.substring(name.indexOf('.') + 1);
-			if (name.equals(columnSchema.getName())) {
-				return association;
-			}
-		}
-		return null;
-	}
 	
 }
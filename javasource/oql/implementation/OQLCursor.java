@@ -0,0 +1,111 @@
+package oql.implementation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.connectionbus.data.IDataRow;
+import com.mendix.systemwideinterfaces.connectionbus.data.IDataTable;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+/**
+ * Reads the result of an OQL statement in batches, so a microflow can process a large result
+ * without holding all of it in memory, unlike the ExecuteOQLStatement action, which returns the
+ * whole result at once. Rows are only mapped to objects of the return entity when their batch is
+ * requested. When the context is in a transaction, batches are not prefetched, see {@link OQLPager}.
+ * 
+ * The cursor of a context is kept in its data under {@link #CONTEXT_CURSOR_OBJ}, like the reader
+ * of ImportCSV, so it can be used from Java actions called by the same microflow:
+ * <code>OQLCursor.open</code>, then <code>OQLCursor.next</code> until it returns an empty list, and
+ * <code>OQLCursor.close</code> when done.
+ */
+public class OQLCursor implements AutoCloseable {
+	public static final String CONTEXT_CURSOR_OBJ = "OQLCursor";
+	
+	private final String statement;
+	private final String returnEntity;
+	private final OQLPager pager;
+	private long rowCount = 0;
+	
+	/**
+	 * @param keyColumn The result column to page on, see {@link OQLPager}, or null to page by offset
+	 */
+	public OQLCursor(IContext context, String statement, String returnEntity, int batchSize, Map<String, Object> parameters, String keyColumn) {
+		this(context, new OQLStatement(statement, parameters), returnEntity, batchSize, keyColumn);
+	}
+	
+	public OQLCursor(IContext context, OQLStatement statement, String returnEntity, int batchSize, String keyColumn) {
+		this.statement = statement.getStatement();
+		this.returnEntity = returnEntity;
+		this.pager = new OQLPager(context, statement, batchSize, keyColumn);
+	}
+	
+	/**
+	 * Opens a cursor and stores it in the context, closing the cursor that was opened before.
+	 */
+	public static OQLCursor open(IContext context, String statement, String returnEntity, int batchSize, Map<String, Object> parameters, String keyColumn) {
+		return open(context, new OQLStatement(statement, parameters), returnEntity, batchSize, keyColumn);
+	}
+	
+	public static OQLCursor open(IContext context, OQLStatement statement, String returnEntity, int batchSize, String keyColumn) {
+		close(context);
+		OQLCursor cursor = new OQLCursor(context, statement, returnEntity, batchSize, keyColumn);
+		context.getData().put(CONTEXT_CURSOR_OBJ, cursor);
+		return cursor;
+	}
+	
+	/**
+	 * @return The next batch of the cursor of the context, or an empty list if all rows have been read
+	 */
+	public static List<IMendixObject> next(IContext context) throws CoreException {
+		Object contextObj = context.getData().get(CONTEXT_CURSOR_OBJ);
+		if (!(contextObj instanceof OQLCursor)) {
+			throw new CoreException("No OQL cursor has been opened in this context.");
+		}
+		return ((OQLCursor) contextObj).next(context);
+	}
+	
+	/**
+	 * Closes the cursor of the context, if any
+	 */
+	public static void close(IContext context) {
+		Object contextObj = context.getData().remove(CONTEXT_CURSOR_OBJ);
+		if (contextObj instanceof OQLCursor) {
+			((OQLCursor) contextObj).close();
+		}
+	}
+	
+	/**
+	 * @param context The context to create the objects in
+	 * @return The next batch, or an empty list if all rows have been read
+	 */
+	public List<IMendixObject> next(IContext context) throws CoreException {
+		IDataTable page = pager.next();
+		if (page == null || page.getRowCount() == 0) {
+			return Collections.emptyList();
+		}
+		
+		ResultMapping mapping = ResultMapping.get(statement, returnEntity, page.getSchema());
+		List<IMendixObject> result = new ArrayList<IMendixObject>(page.getRowCount());
+		for (IDataRow row : page.getRows()) {
+			result.add(mapping.map(context, row));
+		}
+		rowCount += result.size();
+		return result;
+	}
+	
+	/**
+	 * @return The amount of rows read so far
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+	
+	@Override
+	public void close() {
+		pager.close();
+	}
+}
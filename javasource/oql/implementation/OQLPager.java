@@ -0,0 +1,245 @@
+package oql.implementation;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.connectionbus.data.IDataRow;
+import com.mendix.systemwideinterfaces.connectionbus.data.IDataTable;
+import com.mendix.systemwideinterfaces.connectionbus.data.IDataTableSchema;
+import com.mendix.systemwideinterfaces.connectionbus.requests.IRetrievalSchema;
+import com.mendix.systemwideinterfaces.connectionbus.requests.types.IOQLTextGetRequest;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+
+/**
+ * Retrieves the result of an OQL statement page by page, as used by the ExportOQLToCSV actions.
+ *
+ * If a key column is given, pages are retrieved with a keyset condition on that column: the
+ * statement is wrapped in a subquery that is ordered on the key and starts after the last key of
+ * the previous page. Every page then costs the same, instead of growing with the offset. The key
+ * column should be unique and never empty, for example the ID, and the statement itself should not
+ * be ordered or limited. Without a key column, or for a data set, pages are retrieved by offset.
+ *
+ * If no key column is given, the result has an ID column and has more than one page, the ID column
+ * is used as key column, as long as the statement is not ordered or limited and does not join
+ * other entities, which could repeat an ID. The first page is then retrieved again, ordered on the
+ * ID, so the export actions page by keyset without any setup.
+ *
+ * While the caller processes a page, the next page is already retrieved in the background, with a
+ * new sudo context of the same session. If the given context is in a transaction, which the caller
+ * keeps using between pages, every page is retrieved in the calling thread with a sudo clone of
+ * that context instead, so the transaction is never used from two threads at the same time.
+ */
+public class OQLPager implements AutoCloseable {
+	public static final int DEFAULT_PAGE_SIZE = 10000;
+
+	private static final String LAST_KEY_PARAMETER = "PagerLastKey";
+	private static final ILogNode logger = Core.getLogger(OQL.class.getSimpleName());
+
+	private static final ExecutorService PREFETCH_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		private final AtomicInteger threadnr = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread t = defaultFactory.newThread(runnable);
+			t.setDaemon(true);
+			t.setName("OQL prefetch thread " + threadnr.incrementAndGet());
+			return t;
+		}
+	});
+
+	private final IContext context;
+	private final OQLStatement statement;
+	private final int pageSize;
+	private final boolean prefetch;
+
+	private String keyColumn;
+	private boolean detectKey;
+
+	private int keyIndex = -1;
+	private long offset = 0;
+	private Object lastKey = null;
+	private boolean done = false;
+	private CompletableFuture<IDataTable> nextPage;
+
+	/**
+	 * @param context The context to retrieve the pages with; a sudo clone of it, or of a new context
+	 * of its session when the next page is retrieved in the background, is used
+	 * @param statement An OQL statement or the name of a data set
+	 * @param parameters The parameters of the statement, which are copied
+	 * @param pageSize The amount of rows per page
+	 * @param keyColumn The name of the result column to page on, or null to page by offset
+	 */
+	public OQLPager(IContext context, String statement, Map<String, Object> parameters, int pageSize, String keyColumn) {
+		this(context, new OQLStatement(statement, parameters), pageSize, keyColumn);
+	}
+	
+	/**
+	 * @param statement An OQL statement or the name of a data set, with its parameters
+	 */
+	public OQLPager(IContext context, OQLStatement statement, int pageSize, String keyColumn) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size should be larger than zero");
+		}
+		this.prefetch = !context.isInTransaction();
+		if (prefetch) {
+			// the caller may use its context while we are fetching, so use our own
+			this.context = context.getSession().createContext().createSudoClone();
+		} else {
+			this.context = context.createSudoClone();
+		}
+		this.statement = statement;
+		this.pageSize = pageSize;
+		if (keyColumn != null && !keyColumn.trim().isEmpty() && statement.isDataSet()) {
+			// the name of a data set cannot be wrapped in a subquery
+			logger.warn("Key column " + keyColumn + " is ignored for data set " + statement.getStatement() + ", paging by offset instead.");
+			keyColumn = null;
+		}
+		this.keyColumn = keyColumn == null || keyColumn.trim().isEmpty() ? null : keyColumn.trim();
+		this.detectKey = this.keyColumn == null && !statement.isDataSet() && !statement.isOrdered()
+			&& !statement.isLimited() && !statement.isJoined();
+	}
+
+	/**
+	 * @return The next page, or null if all rows have been retrieved. The first page is always
+	 * returned, even if it is empty, so its schema can be inspected.
+	 */
+	public IDataTable next() throws CoreException {
+		if (done) {
+			return null;
+		}
+
+		IDataTable page;
+		if (nextPage != null) {
+			page = await(nextPage);
+		} else {
+			page = retrieve(lastKey);
+		}
+		nextPage = null;
+
+		if (detectKey) {
+			detectKey = false;
+			if (page.getRowCount() >= pageSize && detectKeyColumn(page)) {
+				// the first page was retrieved in any order, start again in the order of the key
+				page = retrieve(null);
+			}
+		}
+
+		if (page.getRowCount() < pageSize) {
+			done = true;
+		} else {
+			lastKey = getLastKey(page);
+			offset += pageSize;
+			if (prefetch) {
+				// retrieve the next page while the caller processes this one
+				final Object key = lastKey;
+				nextPage = CompletableFuture.supplyAsync(() -> {
+					try {
+						return retrieve(key);
+					} catch (CoreException e) {
+						throw new CompletionException(e);
+					}
+				}, PREFETCH_POOL);
+			}
+		}
+
+		return page;
+	}
+
+	@Override
+	public void close() {
+		done = true;
+		if (nextPage != null) {
+			// a running prefetch cannot be stopped; wait for it, so the context is no longer used
+			// once this method returns
+			try {
+				nextPage.join();
+			} catch (CompletionException | CancellationException e) {
+				// the page is not needed any more
+			}
+			nextPage = null;
+		}
+	}
+
+	private IDataTable retrieve(Object lastKey) throws CoreException {
+		logger.debug(keyColumn != null ? "Executing query after key " + lastKey : "Executing query offset " + offset);
+		IOQLTextGetRequest request;
+		if (keyColumn != null) {
+			String query = "SELECT P.* FROM (" + statement.getStatement() + ") AS P" +
+				(lastKey != null ? " WHERE P." + keyColumn + " > $" + LAST_KEY_PARAMETER : "") +
+				" ORDER BY P." + keyColumn + " ASC";
+			request = (lastKey != null ? statement.with(LAST_KEY_PARAMETER, lastKey) : statement).createRequest(query);
+			IRetrievalSchema schema = Core.createRetrievalSchema();
+			schema.setAmount(pageSize);
+			request.setRetrievalSchema(schema);
+		} else {
+			request = statement.createRequest((long) pageSize, offset);
+		}
+
+		return Core.retrieveOQLDataTable(context, request);
+	}
+
+	/**
+	 * Uses the ID column of the result as key column, if there is one
+	 */
+	private boolean detectKeyColumn(IDataTable page) {
+		IDataTableSchema tableSchema = page.getSchema();
+		IDataRow first = page.getRows().get(0);
+		for (int i = 0; i < tableSchema.getColumnCount(); i++) {
+			String name = tableSchema.getColumnSchema(i).getName();
+			if ("ID".equalsIgnoreCase(name) && first.getValue(context, i) instanceof IMendixIdentifier) {
+				logger.debug("Paging on the ID column of the result");
+				keyColumn = name;
+				keyIndex = i;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Object getLastKey(IDataTable page) throws CoreException {
+		if (keyColumn == null) {
+			return null;
+		}
+
+		if (keyIndex < 0) {
+			IDataTableSchema tableSchema = page.getSchema();
+			for (int i = 0; i < tableSchema.getColumnCount(); i++) {
+				if (tableSchema.getColumnSchema(i).getName().equalsIgnoreCase(keyColumn)) {
+					keyIndex = i;
+				}
+			}
+			if (keyIndex < 0) {
+				throw new CoreException("Key column " + keyColumn + " was not found in the result of the query.");
+			}
+		}
+
+		IDataRow last = page.getRows().get(page.getRowCount() - 1);
+		Object key = last.getValue(context, keyIndex);
+		if (key == null) {
+			throw new CoreException("Key column " + keyColumn + " should not be empty.");
+		}
+		return key;
+	}
+
+	private static IDataTable await(CompletableFuture<IDataTable> page) throws CoreException {
+		try {
+			return page.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof CoreException) {
+				throw (CoreException) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package oql.implementation;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.connectionbus.requests.IParameterMap;
+import com.mendix.systemwideinterfaces.connectionbus.requests.IRetrievalSchema;
+import com.mendix.systemwideinterfaces.connectionbus.requests.types.IOQLTextGetRequest;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+/**
+ * An OQL statement, or the name of a data set, with its own parameters. Unlike the parameters set by
+ * the Add*Parameter actions, which are kept per thread until they are reset, the parameters of a
+ * statement only apply to that statement, so it can be kept and executed again, also from
+ * different threads, with other parameter values.
+ *
+ * Whether the statement is the name of a data set is determined once and remembered for all
+ * statements with the same text, so requests are prepared without trying the data set lookup
+ * every time. Whether the statement has its own ORDER BY, LIMIT, OFFSET, JOIN, UNION or
+ * association path is determined from its text, outside of string literals and subqueries, so
+ * callers know in advance whether it can be used as a subquery.
+ */
+public class OQLStatement {
+	private static final int MAX_CACHED_STATEMENTS = 1000;
+	private static final Map<String, Boolean> dataSets = new ConcurrentHashMap<String, Boolean>();
+
+	private final String statement;
+	private final Map<String, Object> parameters;
+
+	private int orderByIndex = -1;
+	private boolean limited = false;
+	private boolean joined = false;
+
+	public OQLStatement(String statement) {
+		this(statement, Collections.<String, Object>emptyMap());
+	}
+
+	/**
+	 * @param parameters The parameters of the statement, which are copied
+	 */
+	public OQLStatement(String statement, Map<String, Object> parameters) {
+		this.statement = statement;
+		this.parameters = new HashMap<String, Object>(parameters);
+		analyze();
+	}
+
+	/**
+	 * @return A copy of this statement with the parameter set, so statements can be kept as templates
+	 */
+	public OQLStatement with(String name, Object value) {
+		OQLStatement result = new OQLStatement(statement, parameters);
+		result.parameters.put(name, value);
+		return result;
+	}
+
+	public String getStatement() {
+		return statement;
+	}
+
+	public Map<String, Object> getParameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	/**
+	 * @return Whether the statement is the name of a data set instead of an OQL query
+	 */
+	public boolean isDataSet() {
+		Boolean dataSet = dataSets.get(statement);
+		if (dataSet == null) {
+			try {
+				Core.createOQLTextGetRequestFromDataSet(statement);
+				dataSet = true;
+			} catch (IllegalArgumentException e) {
+				dataSet = false;
+			}
+			if (dataSets.size() >= MAX_CACHED_STATEMENTS) {
+				dataSets.clear();
+			}
+			dataSets.put(statement, dataSet);
+		}
+		return dataSet;
+	}
+
+	/**
+	 * @return Whether the statement has an ORDER BY of its own
+	 */
+	public boolean isOrdered() {
+		return orderByIndex >= 0;
+	}
+
+	/**
+	 * @return Whether the statement has a LIMIT or OFFSET of its own, which cannot be combined
+	 * with a limit or offset around it
+	 */
+	public boolean isLimited() {
+		return limited;
+	}
+
+	/**
+	 * @return Whether the statement joins, unions or follows associations, which may repeat the
+	 * values of a column that is unique in its own entity
+	 */
+	public boolean isJoined() {
+		return joined;
+	}
+
+	/**
+	 * @return The statement without its own ORDER BY, for example to count its rows. Only valid
+	 * for statements that are not limited.
+	 */
+	public String getUnorderedStatement() {
+		return orderByIndex >= 0 ? statement.substring(0, orderByIndex) : statement;
+	}
+
+	/**
+	 * @return A request for the statement with its parameters
+	 */
+	public IOQLTextGetRequest createRequest() {
+		IOQLTextGetRequest request;
+		if (isDataSet()) {
+			request = Core.createOQLTextGetRequestFromDataSet(statement);
+		} else {
+			request = Core.createOQLTextGetRequest();
+			request.setQuery(statement);
+		}
+		return withParameters(request);
+	}
+
+	/**
+	 * @return A request for the given query, which is derived from this statement, with the
+	 * parameters of this statement
+	 */
+	IOQLTextGetRequest createRequest(String query) {
+		IOQLTextGetRequest request = Core.createOQLTextGetRequest();
+		request.setQuery(query);
+		return withParameters(request);
+	}
+
+	/**
+	 * @return A request for the statement that retrieves at most <code>amount</code> rows, starting
+	 * at <code>offset</code>. Null or 0 retrieves all rows.
+	 */
+	public IOQLTextGetRequest createRequest(Long amount, Long offset) {
+		IOQLTextGetRequest request = createRequest();
+		IRetrievalSchema schema = Core.createRetrievalSchema();
+		schema.setOffset(offset != null ? offset : 0);
+		schema.setAmount(amount != null ? amount : 0);
+		request.setRetrievalSchema(schema);
+		return request;
+	}
+
+	public List<IMendixObject> execute(IContext context, String returnEntity, Long amount, Long offset) throws CoreException {
+		return OQL.executeOQL(context, this, returnEntity, amount, offset);
+	}
+
+	public Long count(IContext context, Long amount) throws CoreException {
+		return OQL.countRowsOQL(context, this, amount);
+	}
+
+	public OQLCursor openCursor(IContext context, String returnEntity, int batchSize, String keyColumn) {
+		return OQLCursor.open(context, this, returnEntity, batchSize, keyColumn);
+	}
+
+	@Override
+	public String toString() {
+		return statement + " " + parameters;
+	}
+
+	private void analyze() {
+		int depth = 0;
+		String previousWord = null;
+		int previousWordIndex = -1;
+		int i = 0;
+		while (i < statement.length()) {
+			char c = statement.charAt(i);
+			if (c == '\'' || c == '"') {
+				// skip string literals and quoted names, a doubled quote is an escaped quote
+				int end = statement.indexOf(c, i + 1);
+				while (end >= 0 && end + 1 < statement.length() && statement.charAt(end + 1) == c) {
+					end = statement.indexOf(c, end + 2);
+				}
+				i = end < 0 ? statement.length() : end + 1;
+			} else if (c == '(') {
+				depth++;
+				i++;
+			} else if (c == ')') {
+				depth--;
+				i++;
+			} else if (Character.isLetter(c) || c == '_') {
+				int start = i;
+				while (i < statement.length() && (Character.isLetterOrDigit(statement.charAt(i)) || statement.charAt(i) == '_' || statement.charAt(i) == '.')) {
+					i++;
+				}
+				if (depth == 0) {
+					String word = statement.substring(start, i).toUpperCase(Locale.ROOT);
+					if (word.equals("BY") && "ORDER".equals(previousWord)) {
+						orderByIndex = previousWordIndex;
+					} else if (word.equals("LIMIT") || word.equals("OFFSET")) {
+						limited = true;
+					} else if (word.equals("JOIN") || word.equals("UNION")) {
+						joined = true;
+					}
+					previousWord = word;
+					previousWordIndex = start;
+				}
+			} else {
+				if (c == '/' && depth == 0) {
+					// a path over an association
+					joined = true;
+				}
+				i++;
+			}
+		}
+	}
+
+	private IOQLTextGetRequest withParameters(IOQLTextGetRequest request) {
+		IParameterMap parameterMap = request.createParameterMap();
+		for (Entry<String, Object> entry : parameters.entrySet()) {
+			parameterMap.put(entry.getKey(), entry.getValue());
+		}
+		request.setParameters(parameterMap);
+		return request;
+	}
+}
@@ -0,0 +1,144 @@
+package oql.implementation;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.connectionbus.data.IDataRow;
+import com.mendix.systemwideinterfaces.connectionbus.data.IDataTableSchema;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaAssociation;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
+
+/**
+ * The mapping of the columns of an OQL result to the attributes and associations of the return
+ * entity. It is resolved once per statement and return entity and cached, so mapping a row only
+ * converts and sets its values.
+ */
+public class ResultMapping {
+	private static final int MAX_CACHED_MAPPINGS = 500;
+	private static final Map<String, ResultMapping> cache = new ConcurrentHashMap<String, ResultMapping>();
+	
+	private static final class Column {
+		final String name;
+		final String attribute;
+		final PrimitiveType type;
+		final String association;
+		
+		Column(String name, IMetaPrimitive primitive, IMetaAssociation association) {
+			this.name = name;
+			this.attribute = primitive != null ? primitive.getName() : null;
+			this.type = primitive != null ? primitive.getType() : null;
+			this.association = association != null ? association.getName() : null;
+		}
+	}
+	
+	private final String returnEntity;
+	private final Column[] columns;
+	
+	private ResultMapping(String returnEntity, IDataTableSchema tableSchema) {
+		this.returnEntity = returnEntity;
+		IMetaObject targetMeta = Core.getMetaObject(returnEntity);
+		this.columns = new Column[tableSchema.getColumnCount()];
+		for (int i = 0; i < columns.length; i++) {
+			String name = tableSchema.getColumnSchema(i).getName();
+			columns[i] = new Column(name, targetMeta.getMetaPrimitive(name), getAssociation(targetMeta, name));
+		}
+	}
+	
+	/**
+	 * @return The mapping of the result of the statement to the return entity, from the cache if it
+	 * was resolved before for the same columns
+	 */
+	public static ResultMapping get(String statement, String returnEntity, IDataTableSchema tableSchema) {
+		String key = returnEntity + "\n" + statement;
+		ResultMapping mapping = cache.get(key);
+		if (mapping == null || !mapping.matches(tableSchema)) {
+			mapping = new ResultMapping(returnEntity, tableSchema);
+			if (cache.size() >= MAX_CACHED_MAPPINGS) {
+				cache.clear();
+			}
+			cache.put(key, mapping);
+		}
+		return mapping;
+	}
+	
+	public static void clearCache() {
+		cache.clear();
+	}
+	
+	private boolean matches(IDataTableSchema tableSchema) {
+		if (tableSchema.getColumnCount() != columns.length) {
+			return false;
+		}
+		for (int i = 0; i < columns.length; i++) {
+			if (!columns[i].name.equals(tableSchema.getColumnSchema(i).getName())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Creates an object of the return entity and sets the values of the row.
+	 */
+	public IMendixObject map(IContext context, IDataRow row) {
+		IMendixObject targetObj = Core.instantiate(context, returnEntity);
+		for (int i = 0; i < columns.length; i++) {
+			Column column = columns[i];
+			Object value = row.getValue(context, i);
+			
+			if (value == null) {
+				if (column.attribute != null) {
+					targetObj.setValue(context, column.attribute, null);
+				} else if (column.association == null) {
+					throw new NullPointerException("Null value found " + column.name + 
+							" was not found as association or attribute.");
+				}
+			} else if (value instanceof IMendixIdentifier) {
+				if (column.association == null) {
+					throw new NullPointerException("Could not find result association " + column.name + " in target object.");
+				}
+				targetObj.setValue(context, column.association, value);
+			} else {
+				if (column.attribute == null) {
+					throw new NullPointerException("Could not find result attribute " + column.name + " in target object.");
+				}
+				targetObj.setValue(context, column.attribute, convert(value, column.type));
+			}
+		}
+		return targetObj;
+	}
+	
+	private static Object convert(Object value, PrimitiveType type) {
+		if (value instanceof Integer && type == PrimitiveType.Long) {
+			return ((Integer) value).longValue();
+		} else if (value instanceof Long && type == PrimitiveType.Integer) {
+			return Math.toIntExact((Long) value);
+		} else if (value instanceof Double && type == PrimitiveType.Decimal) {
+			return new BigDecimal((Double) value);
+		}
+		return value;
+	}
+	
+	private static IMetaAssociation getAssociation(IMetaObject targetMeta, String columnName) {
+		/* Escaping an alias as described at https://docs.mendix.com/refguide7/oql-select-clause
+		 * leads to an error when using dots e.g. (OQL.ExamplePerson_ExamplePersonResult).
+		 * Therefore this action accepts the ExamplePerson_ExamplePersonResult part and searches for the
+		 * association that has this in it.
+		 */
+		for (IMetaAssociation association : targetMeta.getDeclaredMetaAssociationsParent()) {
+			String name = association.getName();
+			name = name.substring(name.indexOf('.') + 1);
+			if (name.equals(columnName)) {
+				return association;
+			}
+		}
+		return null;
+	}
+}
@@ -142,7 +142,7 @@ public class GenerateExcelDoc extends CustomJavaAction<IMendixObject>
 					// Retrieve the needed data.
 					DataOQL data = new DataOQL(this.getContext(), TemplateObject);
 					// Fill the document with the data.
-					export.buildExportFile(mxSheet, mxColumnList, data.getRowData(mxSheet, this.InputObject, mxColumnList));
+					export.buildExportFile(mxSheet, mxColumnList, data.getRows(mxSheet, this.InputObject, mxColumnList));
 				} else {
 					throw new CoreException("The document can't be created, because there aren't any columns to export. Please check the logfile.");
 				}
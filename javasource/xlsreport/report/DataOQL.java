@@ -9,8 +9,10 @@ import com.mendix.core.CoreException;
 import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataRow;
 import com.mendix.systemwideinterfaces.connectionbus.data.IDataTable;
+import com.mendix.systemwideinterfaces.connectionbus.requests.IRetrievalSchema;
 import com.mendix.systemwideinterfaces.connectionbus.requests.types.IOQLTextGetRequest;
 import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import mxmodelreflection.proxies.MxObjectMember;
 import mxmodelreflection.proxies.MxObjectType;
@@ -46,6 +48,15 @@ public class DataOQL
 	private HashSet<String> attributeAliasSet = new HashSet<String>();
 	private LinkedList<AttributeData> attributeList = new LinkedList<AttributeData>();
 	private HashSet<String> usedAttributeList = null;
+	// Whether the result can be retrieved in pages, see RowReader
+	private boolean pageable = false;
+	// The query for the pages after the first one, split at the ID of the last row, if the pages
+	// can be retrieved after that ID instead of by offset
+	private String keysetPrefix = null;
+	private String keysetSuffix = null;
+	private int keyColumn = -1;
+	private static final int PAGE_SIZE = 10000;
+	private static final String KEY_ALIAS = "XLSPageKey";
 
 	/**
 	 * Constructor to create a Data OQL retrieve
@@ -65,26 +76,141 @@ public class DataOQL
 	 * General function from the Data OQL class to: - Create OQL query - Execute
 	 * OQL query - Parse result to 2D array
 	 * 
+	 * The whole result is held in memory, use getRows() to read large results.
+	 * 
 	 * @param mxSheet Mendix MxSheet object
 	 * @param inputObject A general input object to specify an association
 	 * @param mxColumnList List of a representation of the MxColumn objects
-	 * @return 2D Object array that represents a DataTable
+	 * @return 2D Object array that represents a DataTable, or null if there are no rows
 	 * @throws CoreException
 	 */
 	public Object[][] getRowData(MxSheet mxSheet, IMendixObject inputObject, List<ColumnPreset> mxColumnList) throws CoreException
+	{
+		RowReader reader = getRows(mxSheet, inputObject, mxColumnList);
+		List<Object[]> rows = new ArrayList<Object[]>();
+		Object[] row;
+		while ((row = reader.next()) != null)
+		{
+			rows.add(row);
+		}
+		return rows.isEmpty() ? null : rows.toArray(new Object[rows.size()][]);
+	}
+
+	/**
+	 * Create the OQL query for the sheet and return a reader that retrieves the
+	 * result page by page, so only one page of the result is held in memory.
+	 * 
+	 * @param mxSheet Mendix MxSheet object
+	 * @param inputObject A general input object to specify an association
+	 * @param mxColumnList List of a representation of the MxColumn objects
+	 * @return A reader for the rows of the sheet
+	 * @throws CoreException
+	 */
+	public RowReader getRows(MxSheet mxSheet, IMendixObject inputObject, List<ColumnPreset> mxColumnList) throws CoreException
 	{
 		log.debug("-- Run the OQL data for the sheet: " + mxSheet.getName());
 
 		// Create the query that is needed.
 		String Query = createOQLQuery(mxSheet, inputObject, mxColumnList);
 		Query = Query.replace(" / ", "/");
+		if (this.keysetPrefix != null)
+		{
+			this.keysetPrefix = this.keysetPrefix.replace(" / ", "/");
+			this.keysetSuffix = this.keysetSuffix.replace(" / ", "/");
+		}
 		log.debug(">> The query for the OQL retrieve is created: " + Query);
 
-		// Execute the query.
-		IOQLTextGetRequest request = Core.createOQLTextGetRequest();
-		request.setQuery(Query);				
-		IDataTable data = Core.retrieveOQLDataTable(this.context, request);				
-		return procesDatatable(data, mxColumnList.size());
+		return new RowReader(Query, mxColumnList.size());
+	}
+
+	/**
+	 * Reads the result of the OQL query of a sheet row by row. Pages of
+	 * PAGE_SIZE rows require a stable order, so grouped, aggregated and distinct
+	 * results are retrieved at once.
+	 * 
+	 * Without a sorting of the sheet and without reference joins, every row is
+	 * a different row object, ordered by its ID, so each page is retrieved
+	 * after the ID of the last row of the previous page and costs the same.
+	 * Otherwise pages are retrieved by offset: the sort columns are not unique,
+	 * and a join can return a row object more than once, so there is no single
+	 * key to continue after. The database then sorts the result again for every
+	 * page. A worksheet holds at most about a million rows, so such a sheet takes
+	 * at most about a hundred page queries, while only one page is held in memory.
+	 */
+	public class RowReader
+	{
+		private final String query;
+		private final int columnAmount;
+		private List<? extends IDataRow> rows = null;
+		private int index = 0;
+		private long offset = 0;
+		private Long lastKey = null;
+		private boolean lastPage = false;
+
+		private RowReader(String query, int columnAmount)
+		{
+			this.query = query;
+			this.columnAmount = columnAmount;
+		}
+
+		/**
+		 * @return The values of the next row, or null if all rows have been read
+		 * @throws CoreException
+		 */
+		public Object[] next() throws CoreException
+		{
+			if (this.rows == null || this.index >= this.rows.size())
+			{
+				if (this.lastPage)
+				{
+					return null;
+				}
+				retrievePage();
+				if (this.rows.isEmpty())
+				{
+					return null;
+				}
+			}
+
+			IDataRow row = this.rows.get(this.index++);
+			Object[] values = new Object[this.columnAmount];
+			for (int i = 0; i < this.columnAmount; i++)
+			{
+				values[i] = parseValue(row.getValue(context, i));
+			}
+			return values;
+		}
+
+		private void retrievePage() throws CoreException
+		{
+			IOQLTextGetRequest request = Core.createOQLTextGetRequest();
+			if (this.lastKey != null)
+			{
+				request.setQuery(keysetPrefix + this.lastKey + keysetSuffix);
+			} else
+			{
+				request.setQuery(this.query);
+			}
+			if (pageable)
+			{
+				IRetrievalSchema schema = Core.createRetrievalSchema();
+				schema.setOffset(keysetPrefix != null ? 0 : this.offset);
+				schema.setAmount(PAGE_SIZE);
+				request.setRetrievalSchema(schema);
+			}
+			IDataTable data = Core.retrieveOQLDataTable(context, request);
+			log.trace(">> Process the retrieved the datatable: " + data.getRowCount() + " rows.");
+
+			this.rows = data.getRows();
+			this.index = 0;
+			this.offset += this.rows.size();
+			this.lastPage = !pageable || this.rows.size() < PAGE_SIZE;
+			if (keysetPrefix != null && !this.lastPage)
+			{
+				Object key = this.rows.get(this.rows.size() - 1).getValue(context, keyColumn);
+				this.lastKey = key instanceof IMendixIdentifier ? ((IMendixIdentifier) key).toLong() : ((Number) key).longValue();
+			}
+		}
 	}
 
 	/**
@@ -128,6 +254,7 @@ public class DataOQL
 		}
 		boolean groupBy = mxSheet.getFormLayout_GroupBy();
 		boolean groupSet = false;
+		boolean aggregate = false;
 		if (groupBy)
 		{
 			this.GROUP.append(" GROUP BY ");
@@ -140,6 +267,7 @@ public class DataOQL
 			String attribute = "\"" + data.getObjectData().getAlias() + "." + data.getAttributeName().replace(" / ", "/") + "\"";
 			if (data.isAggregate())
 			{
+				aggregate = true;
 				switch (data.getFunction())
 				{
 					case Average:
@@ -197,8 +325,17 @@ public class DataOQL
 		{
 			addWhereClause(constrainList, mainObject);
 		}
-		// Create the order by
+		// Create the order by, ending with the IDs of the row object and all joined objects so pages
+		// are retrieved in a stable order, also when a reference join returns several rows per object.
+		// Aggregated, grouped and distinct data can not be ordered by ID and is retrieved at once.
 		createOrder(mxSheet, mainObject);
+		boolean sorted = this.ORDER.length() > 0;
+		this.pageable = !mxSheet.getDistinctData() && !groupBy && !aggregate;
+		if (this.pageable)
+		{
+			this.ORDER.append(this.ORDER.length() == 0 ? " ORDER BY " : ", ").append(mainObject.getAlias()).append(".ID ASC");
+			appendJoinedIds(mainObject);
+		}
 
 		// Create inner joins;
 		HashMap<String, String> refMap = getReferenceHandling(mxSheet);
@@ -226,6 +363,18 @@ public class DataOQL
 			createInnerJoin(refMap, mainObject, null, null);
 		}
 
+		// Page after the ID of the row object when it is the only order and is never repeated
+		if (this.pageable && !sorted && mainObject.getReferences().isEmpty() && !this.attributeList.isEmpty())
+		{
+			this.keyColumn = this.attributeList.size();
+			this.SELECT.append(", ").append(mainObject.getAlias()).append(".ID AS ").append(KEY_ALIAS);
+			String where = this.WHERE.length() == 0 ? " WHERE "
+					: " WHERE (" + this.WHERE.substring(" WHERE ".length()) + ") AND ";
+			this.keysetPrefix = SELECT.toString() + " " + this.FROM + " " + this.JOIN.toString()
+					+ " " + where + mainObject.getAlias() + ".ID > ";
+			this.keysetSuffix = " " + this.GROUP.toString() + " " + this.ORDER.toString() + ";";
+		}
+
 		// Clear cached data.
 		mainObject.clear();
 
@@ -668,6 +817,22 @@ public class DataOQL
 		}
 	}
 
+	/**
+	 * Add the IDs of all objects joined to the given object to the ORDER BY statement.
+	 * 
+	 * @param objectData
+	 *            The data of the object the joins start from.
+	 */
+	private void appendJoinedIds(ObjectData objectData)
+	{
+		for (ReferenceData reference : objectData.getReferences())
+		{
+			ObjectData toObject = reference.getToObject();
+			this.ORDER.append(", ").append(toObject.getAlias()).append(".ID ASC");
+			appendJoinedIds(toObject);
+		}
+	}
+
 	/**
 	 * Build from the configuration a reference handling HashMap: Reference,
 	 * JOINtype - INNER JOIN - OUTER JOIN - LEFT JOIN - RIGHT JOIN - FULL JOIN
@@ -695,43 +860,6 @@ public class DataOQL
 		return returnMap;
 	}
 
-	/**
-	 * Build from the IDataTable a 2D array.
-	 * 
-	 * @param data
-	 *            Mendix IDataTable: result from the OQL query
-	 * @param columnAmount
-	 *            The amount of the columns
-	 * @return A 2D array with different values
-	 * @throws CoreException
-	 */
-	private Object[][] procesDatatable(IDataTable data, int columnAmount) throws CoreException
-	{
-		log.trace(">> Process the retrieved the datatable: "+ data.getRowCount() + " rows.");
-		// Render first the GUIDS that are needed
-		Object[][] outputTable = new Object[data.getRowCount()][columnAmount];
-		// Set the results in the output;
-		if (data.getRowCount() > 0)
-		{
-			int rowCounter = 0;
-			Iterator<IDataRow> rowItr = data.iterator();
-			while (rowItr.hasNext())
-			{
-				IDataRow row = rowItr.next();
-				for (int i = 0; i < columnAmount; i++)
-				{
-					outputTable[rowCounter][i] = parseValue(row.getValue(context, i));
-				}
-				rowCounter++;
-			}
-
-			return outputTable;
-		} else
-		{
-			return null;
-		}
-	}
-
 	private Object parseValue(Object value)
 	{
 		//if (value instanceof Date)
@@ -1,10 +1,15 @@
 package xlsreport.report.export;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.List;
 
 import system.proxies.FileDocument;
 import xlsreport.proxies.MxSheet;
 import xlsreport.proxies.MxTemplate;
+import xlsreport.report.DataOQL.RowReader;
 import xlsreport.report.data.ColumnPreset;
 
 import com.mendix.core.Core;
@@ -17,6 +22,7 @@ public abstract class Export implements AutoCloseable
 	protected static ILogNode log = Core.getLogger("XLSreport");
 	protected IContext context;   
 	protected IMendixObject inputObject;
+	protected static final int BUFFER_SIZE = 64 * 1024;
     
     public Export(IContext context, IMendixObject inputObject)
 	{
@@ -24,10 +30,24 @@ public abstract class Export implements AutoCloseable
 		this.inputObject = inputObject;
 	}
 
-	abstract public void buildExportFile(MxSheet mxSheet, List<ColumnPreset> mxColumnList, Object[][] Table) throws Exception;	
+	abstract public void buildExportFile(MxSheet mxSheet, List<ColumnPreset> mxColumnList, RowReader rows) throws Exception;	
 	
 	abstract public void writeData(FileDocument outputDocument) throws Exception;
 	
+	/**
+	 * Store the content of a temporary file in the document and delete the file.
+	 */
+	protected void storeFile(File file, FileDocument outputDocument) throws Exception
+	{
+		try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))
+		{
+			Core.storeFileDocumentContent(context, outputDocument.getMendixObject(), inputStream);
+		} finally
+		{
+			file.delete();
+		}
+	}
+	
 	public static String getDatePresentation(MxTemplate template)
 	{
 		String datePresentation = "M/d/yy h:mm";
@@ -12,11 +12,13 @@ import org.joda.time.format.DateTimeFormatter;
 import system.proxies.FileDocument;
 import xlsreport.proxies.MxSheet;
 import xlsreport.proxies.MxTemplate;
+import xlsreport.report.DataOQL.RowReader;
 import xlsreport.report.data.ColumnPreset;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.Date;
 import java.util.List;
@@ -24,11 +26,11 @@ import java.util.TimeZone;
 
 public class ExportCSV  extends Export
 {
-	private ByteArrayOutputStream baos;
+	private File tmpFile;
 	private CSVWriter writer;
 	DateTimeFormatter fmt;
 
-	public ExportCSV(IContext context, MxTemplate template, IMendixObject inputObject)
+	public ExportCSV(IContext context, MxTemplate template, IMendixObject inputObject) throws IOException
 	{
 		super(context,inputObject);
 		char separator = ',';
@@ -56,14 +58,14 @@ public class ExportCSV  extends Export
 		else {
 			quotecharacter = template.getQuotationCharacter().charAt(0);
 		}
-		// Create the OpenCSV writer
-		this.baos = new ByteArrayOutputStream();
+		// Create the OpenCSV writer, which writes to a temporary file so the document is never held in memory
+		this.tmpFile = File.createTempFile("XLSreport", ".csv");
 
-		this.writer = new CSVWriter(new OutputStreamWriter(baos), separator, quotecharacter, '"', "\r\n");
+		this.writer = new CSVWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE)), separator, quotecharacter, '"', "\r\n");
 	}
 
 	@Override
-	public void buildExportFile(MxSheet mxSheet, List<ColumnPreset> mxColumnList, Object[][] table) throws Exception
+	public void buildExportFile(MxSheet mxSheet, List<ColumnPreset> mxColumnList, RowReader rows) throws Exception
 	{
 		String[] values = new String[mxColumnList.size()];
 		for(int i = 0; i < mxColumnList.size(); i++)
@@ -73,11 +75,12 @@ public class ExportCSV  extends Export
 		writer.writeNext(values);
 		
 		//SimpleDateFormat format = new SimpleDateFormat(this.dateFormat);		
-		for(int i = 0; i < table.length; i++)
+		Object[] row;
+		while((row = rows.next()) != null)
 		{
-			for(int e = 0; e < table[i].length; e++)
+			for(int e = 0; e < row.length; e++)
 			{
-				Object value = table[i][e];
+				Object value = row[e];
 				if(value instanceof Date)
 				{
 					DateTime dateTime = new DateTime(value);
@@ -105,17 +108,16 @@ public class ExportCSV  extends Export
 	@Override
 	public void writeData(FileDocument outputDocument) throws Exception
 	{
-		try (InputStream inputStream = new ByteArrayInputStream(baos.toByteArray()))
-		{
-			Core.storeFileDocumentContent(context, outputDocument.getMendixObject(), inputStream);
-		}
+		this.writer.close();
+		this.writer = null;
+		storeFile(this.tmpFile, outputDocument);
 	}
 
 	public void close() throws Exception
 	{
-		if (this.baos != null)
-			this.baos.close();
 		if (this.writer != null)
 			this.writer.close();
+		if (this.tmpFile != null)
+			this.tmpFile.delete();
 	}
 }
@@ -16,17 +16,23 @@ import system.proxies.FileDocument;
 import xlsreport.proxies.*;
 import xlsreport.proxies.constants.Constants;
 import xlsreport.report.Aggregator;
+import xlsreport.report.DataOQL.RowReader;
 import xlsreport.report.Styling;
 import xlsreport.report.data.ColumnPreset;
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 
 public class ExportExcel extends Export
 {	
+	private static final int ROW_WINDOW_SIZE = SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
 	private Styling styling;
 	private Workbook book;	
 	private boolean customExcel = false;
@@ -63,7 +69,10 @@ public class ExportExcel extends Export
                 case XLSM:
 				case XLSX:
                     if(Constants.getUseStreamingAPI()){
-                        this.book = new SXSSFWorkbook(-1);
+                        // Keep only a window of rows in memory, older rows are flushed to a temporary file
+                        SXSSFWorkbook streamingBook = new SXSSFWorkbook(ROW_WINDOW_SIZE);
+                        streamingBook.setCompressTempFiles(true);
+                        this.book = streamingBook;
                     }else{
                         this.book = new XSSFWorkbook();
                     }
@@ -79,7 +88,7 @@ public class ExportExcel extends Export
 	}
 
 	@Override
-	public void buildExportFile(MxSheet mxSheet, List<ColumnPreset> ColumnPresetList, Object[][] table) throws CoreException
+	public void buildExportFile(MxSheet mxSheet, List<ColumnPreset> ColumnPresetList, RowReader rows) throws CoreException
 	{
 		// Set first the needed column styling options.
 		for(ColumnPreset column : ColumnPresetList)
@@ -107,8 +116,16 @@ public class ExportExcel extends Export
         // Write the OQL result data to the excel
         int startrow = mxSheet.getStartRow();
         // Fill the excel with the data
-		if(table != null)
+		Object[] data = rows.next();
+		if(data != null)
 		{
+			// A streaming sheet only keeps the last rows in memory, so auto sized columns are tracked from
+			// the start and every row is written in order: static data and row settings are applied to
+			// their row right after that row is filled, so they still take precedence over the data.
+			List<MxColumnSettings> columnSettings = getColumnSettings(mxSheet, sheet);
+			TreeMap<Integer, List<IMendixObject>> staticRows = getStaticData(mxSheet);
+			TreeMap<Integer, MxRowSettings> rowSettings = getRowSettings(mxSheet);
+			processFixedRows(sheet, staticRows.headMap(startrow - 1), rowSettings.headMap(startrow - 1));
 			if(!this.customExcel)
 			{
 				// Place the headers above the data in the excel only when there isn't a custom excel file
@@ -120,26 +137,28 @@ public class ExportExcel extends Export
 					cell.setCellValue(columnPreset.getName());
 		        }
 			}
-			for(int i = 0; i < table.length; i++)
+			processFixedRows(sheet, staticRows.subMap(startrow - 1, startrow), rowSettings.subMap(startrow - 1, startrow));
+			do
 			{
 				Row row = getRow(sheet, startrow, mxSheet);
-				for(int e = 0; e < table[i].length; e++)
+				for(int e = 0; e < data.length; e++)
 				{
 					// Get the basis data
-					Object data = table[i][e];
+					Object value = data[e];
 					ColumnPreset columnPreset = ColumnPresetList.get(e);
 					if(columnPreset.isResultAggregation())
 					{
-						double value = ((Number)data).doubleValue();
-                        columnPreset.addResultAggrValue(value);
+						double number = ((Number)value).doubleValue();
+                        columnPreset.addResultAggrValue(number);
 					}
 					// Find the excel position of the cell and set the data;				
 					Cell cell = getCell(row, columnPreset.getColumnNr());
-	                SetCellValue(data, cell, columnPreset.isShouldLocalizeDate());
+	                SetCellValue(value, cell, columnPreset.isShouldLocalizeDate());
 	                cell.setCellStyle(columnPreset.getStyle());
 				}
+				processFixedRows(sheet, staticRows.subMap(startrow, startrow + 1), rowSettings.subMap(startrow, startrow + 1));
 				startrow++;
-			}
+			} while ((data = rows.next()) != null);
 			Row endRow = getRow(sheet, startrow, mxSheet);
 			for(ColumnPreset columnPreset : ColumnPresetList)
 			{
@@ -149,28 +168,24 @@ public class ExportExcel extends Export
 					SetCellValue(columnPreset.getResultAggregate(), cell, columnPreset.isShouldLocalizeDate());
 				}
 			}
-			// Write static data
-			if (mxSheet.getDataUsage())
-	        {
-                List<IMendixObject> staticList = Core.createXPathQuery("//" + MxStatic.getType() + "[" + MxData.MemberNames.MxData_MxSheet.toString() + "='" + mxSheet.getMendixObject().getId().toLong() + "']")
-                        .setVariable(String.valueOf(MxData.MemberNames.MxData_MxSheet), mxSheet.getMendixObject().getId().toLong())
-                        .execute(context);
-	            processStaticData(staticList, sheet, null);
-	        }
+			processFixedRows(sheet, staticRows.tailMap(startrow), rowSettings.tailMap(startrow));
 			// Set the sheet preferences
-			processSheetPreferences(mxSheet, sheet);
+			processColumnPreferences(columnSettings, sheet);
 		}
 	}
 	
 	@Override
 	public void writeData(FileDocument outputDocument) throws Exception
 	{
-		try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+		// Write the workbook to a temporary file first, so the document is never held in memory
+		File tmpFile = File.createTempFile("XLSreport", ".tmp");
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE)) {
             this.book.write(out);
-            try (ByteArrayInputStream inputStream = new ByteArrayInputStream(out.toByteArray())) {
-                Core.storeFileDocumentContent(context, outputDocument.getMendixObject(), inputStream);
-            }
+        } catch (Exception e) {
+        	tmpFile.delete();
+        	throw e;
         }
+		storeFile(tmpFile, outputDocument);
 	}
 	
 	private void processStaticData(List<IMendixObject> StaticList, Sheet sheet, Aggregator aggr) throws CoreException
@@ -209,45 +224,100 @@ public class ExportExcel extends Export
         }
     }	
 	
-	private void processSheetPreferences(MxSheet mxSheet, Sheet sheet) throws CoreException {
-        if(Constants.getUseStreamingAPI() && sheet instanceof SXSSFSheet){
-             ( (SXSSFSheet) sheet ).trackAllColumnsForAutoSizing();
-        }
-
+	private List<MxColumnSettings> getColumnSettings(MxSheet mxSheet, Sheet sheet) throws CoreException {
         log.debug("-- Process the column preferences.");
         List<IMendixObject> preferences = Core.createXPathQuery("//" + MxColumnSettings.getType() + "[" + MxColumnSettings.MemberNames.ColumnSettings_MxSheet.toString() + "='" + mxSheet.getMendixObject().getId().toLong() + "']")
                 .execute(context);
+        List<MxColumnSettings> columnSettings = new ArrayList<MxColumnSettings>(preferences.size());
         for (IMendixObject columnPref : preferences)
         {
             MxColumnSettings ColumnSetting = MxColumnSettings.initialize(context, columnPref);
-            if (ColumnSetting.getAutoSize())
+            // Flushed rows are not measured, so auto sized columns are tracked before any row is written
+            if (ColumnSetting.getAutoSize() && sheet instanceof SXSSFSheet)
             {
-                sheet.autoSizeColumn(ColumnSetting.getColumnIndex());
+                ((SXSSFSheet) sheet).trackColumnForAutoSizing(ColumnSetting.getColumnIndex());
             }
-            else
+            columnSettings.add(ColumnSetting);
+        }
+        return columnSettings;
+    }
+	
+	private TreeMap<Integer, List<IMendixObject>> getStaticData(MxSheet mxSheet) throws CoreException {
+        TreeMap<Integer, List<IMendixObject>> staticRows = new TreeMap<Integer, List<IMendixObject>>();
+        if (mxSheet.getDataUsage())
+        {
+            List<IMendixObject> staticList = Core.createXPathQuery("//" + MxStatic.getType() + "[" + MxData.MemberNames.MxData_MxSheet.toString() + "='" + mxSheet.getMendixObject().getId().toLong() + "']")
+                    .setVariable(String.valueOf(MxData.MemberNames.MxData_MxSheet), mxSheet.getMendixObject().getId().toLong())
+                    .execute(context);
+            for (IMendixObject StaticData : staticList)
             {
-                int width = ColumnSetting.getColumnWidth() * 34;
-                if (width > 65280)
-                {
-                    width = 65280;
-                }
-                sheet.setColumnWidth(ColumnSetting.getColumnIndex(), width);
+                int rowPlace = MxStatic.initialize(context, StaticData).getRowPlace();
+                staticRows.computeIfAbsent(rowPlace, k -> new ArrayList<IMendixObject>()).add(StaticData);
             }
         }
+        return staticRows;
+    }
 
+	private TreeMap<Integer, MxRowSettings> getRowSettings(MxSheet mxSheet) throws CoreException {
         List<IMendixObject> rowPreferences = Core.createXPathQuery("//" + MxRowSettings.getType() + "[" + MxRowSettings.MemberNames.MxRowSettings_MxSheet.toString() + "='" + mxSheet.getMendixObject().getId().toLong() + "']")
                 .execute(context);
+        TreeMap<Integer, MxRowSettings> rowSettings = new TreeMap<Integer, MxRowSettings>();
         for (IMendixObject RowPref : rowPreferences)
         {
             MxRowSettings RowSetting = MxRowSettings.initialize(context, RowPref);
-            Row row = getRow(sheet, RowSetting.getRowIndex(), null);
-            if (!RowSetting.getDefaultHeight())
+            rowSettings.put(RowSetting.getRowIndex(), RowSetting);
+        }
+        return rowSettings;
+    }
+
+	/**
+	 * Write the static data and row settings of the given rows, in row order.
+	 */
+	private void processFixedRows(Sheet sheet, SortedMap<Integer, List<IMendixObject>> staticRows, SortedMap<Integer, MxRowSettings> rowSettings) throws CoreException {
+        if (staticRows.isEmpty() && rowSettings.isEmpty())
+        {
+            return;
+        }
+        TreeSet<Integer> rowIndexes = new TreeSet<Integer>(staticRows.keySet());
+        rowIndexes.addAll(rowSettings.keySet());
+        for (Integer rowIndex : rowIndexes)
+        {
+            List<IMendixObject> staticList = staticRows.get(rowIndex);
+            if (staticList != null)
+            {
+                processStaticData(staticList, sheet, null);
+            }
+            MxRowSettings RowSetting = rowSettings.get(rowIndex);
+            if (RowSetting != null)
             {
-            	row.setHeightInPoints(RowSetting.getRowHeight());
+                Row row = getRow(sheet, rowIndex, null);
+                if (!RowSetting.getDefaultHeight())
+                {
+                    row.setHeightInPoints(RowSetting.getRowHeight());
+                }
+            }
+        }
+    }
+	
+	private void processColumnPreferences(List<MxColumnSettings> columnSettings, Sheet sheet) throws CoreException {
+        for (MxColumnSettings ColumnSetting : columnSettings)
+        {
+            if (ColumnSetting.getAutoSize())
+            {
+                sheet.autoSizeColumn(ColumnSetting.getColumnIndex());
+            }
+            else
+            {
+                int width = ColumnSetting.getColumnWidth() * 34;
+                if (width > 65280)
+                {
+                    width = 65280;
+                }
+                sheet.setColumnWidth(ColumnSetting.getColumnIndex(), width);
             }
         }
 
-        if(Constants.getUseStreamingAPI() && sheet instanceof SXSSFSheet){
+        if(sheet instanceof SXSSFSheet){
             try {
                 ( (SXSSFSheet) sheet ).flushRows();
             } catch (IOException e) {